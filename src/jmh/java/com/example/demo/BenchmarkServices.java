@@ -0,0 +1,20 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Builds the services outside Spring with their default configuration.
+ */
+final class BenchmarkServices {
+
+    private BenchmarkServices() {
+    }
+
+    static ImageProcessingService imageProcessing() {
+        return new ImageProcessingService(new KernelRegistry(), new SimpleMeterRegistry(), 4_000_000, 0);
+    }
+
+    static FeatureDetectionService featureDetection() {
+        return new FeatureDetectionService(0, new SimpleMeterRegistry());
+    }
+}
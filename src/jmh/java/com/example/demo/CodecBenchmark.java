@@ -0,0 +1,80 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * ImageUtils decode and encode, from memory and through the filesystem,
+ * and the encode-and-publish path processed results take into the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    private Mat image;
+    private byte[] jpeg;
+    private Path directory;
+    private String jpegFile;
+    private LocalImageStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticImages.loadOpenCv();
+        image = SyntheticImages.create(resolution);
+        jpeg = ImageUtils.encodeImage(image);
+        directory = Files.createTempDirectory("codec-benchmark");
+        jpegFile = directory.resolve("source.jpg").toString();
+        Imgcodecs.imwrite(jpegFile, image);
+        store = new LocalImageStore(directory.resolve("store").toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        image.release();
+        // storeProcessedImage leaves empty shard directories behind; delete children first
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeImage() {
+        ImageUtils.decodeImage(jpeg).release();
+    }
+
+    @Benchmark
+    public void readImage() {
+        ImageUtils.readImage(jpegFile).release();
+    }
+
+    @Benchmark
+    public byte[] encodeImage() {
+        return ImageUtils.encodeImage(image);
+    }
+
+    // What FileStorageService.saveProcessedImage does: encode in memory, then
+    // publish through the store's temp-file-and-rename write
+    @Benchmark
+    public void storeProcessedImage() throws IOException {
+        String filename = StorageLayout.uniqueName("bench", OutputFormat.JPEG.extension());
+        store.put(filename, ImageUtils.encodeImage(image));
+        store.delete(filename);
+    }
+}
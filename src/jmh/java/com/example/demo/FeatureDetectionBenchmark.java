@@ -0,0 +1,51 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * detectFeatures per detector, including drawing the keypoints, and
+ * detectKeyPoints alone. KAZE is slow at high resolutions, so this class
+ * stops at 1080p.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeatureDetectionBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    @Param({"harris", "fast", "kaze", "mser"})
+    public String detectorType;
+
+    private FeatureDetectionService service;
+    private Mat image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticImages.loadOpenCv();
+        service = BenchmarkServices.featureDetection();
+        image = SyntheticImages.create(resolution);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        image.release();
+    }
+
+    @Benchmark
+    public void detectFeatures() {
+        service.detectFeatures(image, detectorType).release();
+    }
+
+    @Benchmark
+    public void detectKeyPoints() {
+        service.detectKeyPoints(image, detectorType, DetectorParams.DEFAULT).release();
+    }
+}
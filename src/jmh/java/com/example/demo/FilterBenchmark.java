@@ -0,0 +1,62 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * applyFilter for each filter type at its default kernel size. Below the
+ * tiling threshold the filter writes into its input, so every invocation
+ * gets a fresh copy; the copy happens in setup and is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"average", "disk", "gaussian", "laplacian", "sobel", "log"})
+    public String filterType;
+
+    private ImageProcessingService service;
+    private Mat source;
+    private Mat image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticImages.loadOpenCv();
+        service = BenchmarkServices.imageProcessing();
+        source = SyntheticImages.create(resolution);
+    }
+
+    @Setup(Level.Invocation)
+    public void copySource() {
+        image = source.clone();
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseCopy() {
+        image.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.release();
+        service.shutdown();
+    }
+
+    @Benchmark
+    public Mat applyFilter() {
+        Mat result = service.applyFilter(image, filterType);
+        if (result != image) {
+            result.release();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations that leave their input untouched, so one source image serves
+ * every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageProcessingBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    private ImageProcessingService service;
+    private Mat image;
+    private Mat second;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticImages.loadOpenCv();
+        service = BenchmarkServices.imageProcessing();
+        image = SyntheticImages.create(resolution);
+        second = SyntheticImages.create(image.cols(), image.rows(), 7);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        image.release();
+        second.release();
+        service.shutdown();
+    }
+
+    @Benchmark
+    public void adjustBrightness() {
+        service.adjustBrightness(image, 1.2f).release();
+    }
+
+    @Benchmark
+    public void adjustColorChannel() {
+        service.adjustColorChannel(image, "red", 40).release();
+    }
+
+    @Benchmark
+    public void applyPrewitt() {
+        service.applyPrewitt(image).release();
+    }
+
+    @Benchmark
+    public void convertToGrayscale() {
+        service.convertToGrayscale(image).release();
+    }
+
+    @Benchmark
+    public void blendImages() {
+        service.blendImages(image, second, 0.5f).release();
+    }
+}
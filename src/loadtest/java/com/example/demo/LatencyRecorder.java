@@ -0,0 +1,70 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latencies and outcomes of the requests one worker completed inside the
+ * measurement window. Workers record without sharing anything; the
+ * recorders are merged once the stage has ended.
+ */
+final class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long errors;
+    private long rejected;
+
+    void success(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    // 429: the compute queue was full, which is the server shedding load as
+    // designed; counted apart from real errors
+    void rejected() {
+        rejected++;
+    }
+
+    void error() {
+        errors++;
+    }
+
+    static Summary merge(List<LatencyRecorder> recorders) {
+        int total = recorders.stream().mapToInt(recorder -> recorder.count).sum();
+        long[] all = new long[total];
+        int offset = 0;
+        long errors = 0;
+        long rejected = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, all, offset, recorder.count);
+            offset += recorder.count;
+            errors += recorder.errors;
+            rejected += recorder.rejected;
+        }
+        Arrays.sort(all);
+        return new Summary(all, errors, rejected);
+    }
+
+    record Summary(long[] sortedNanos, long errors, long rejected) {
+
+        long succeeded() {
+            return sortedNanos.length;
+        }
+
+        long requests() {
+            return sortedNanos.length + errors + rejected;
+        }
+
+        // Nearest-rank percentile in milliseconds, 0 when nothing succeeded
+        double percentileMillis(double percentile) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * sortedNanos.length);
+            return sortedNanos[Math.max(0, rank - 1)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.demo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load test settings, given as --name=value arguments (through
+ * -Dloadtest.args="..." under Maven). Every default is fixed, so two runs
+ * with the same arguments on the same machine are directly comparable.
+ */
+record LoadConfig(
+        Map<String, Integer> mix,
+        List<Integer> concurrency,
+        int warmupSeconds,
+        int durationSeconds,
+        String resolution,
+        int images,
+        long seed,
+        List<String> detectors,
+        boolean persist,
+        boolean resultCache,
+        String serverJvmArgs,
+        Path output
+) {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry("mix", "brightness:4,filter:4,features:2"),
+            Map.entry("concurrency", "1,2,4,8,16,32,64"),
+            Map.entry("warmup", "10"),
+            Map.entry("duration", "30"),
+            Map.entry("resolution", "1920x1080"),
+            Map.entry("images", "4"),
+            Map.entry("seed", "42"),
+            Map.entry("detectors", "fast,harris"),
+            Map.entry("persist", "true"),
+            Map.entry("result-cache", "false"),
+            // A fixed, pre-touched heap keeps heap growth out of the RSS
+            // figures, so what remains is native (OpenCV) memory.
+            Map.entry("server-jvm-args", "-Xms1g -Xmx1g -XX:+AlwaysPreTouch"),
+            Map.entry("output", "target/loadtest-result.json")
+    );
+
+    static LoadConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            if (!DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name + ", expected one of " + DEFAULTS.keySet());
+            }
+            values.put(name, arg.substring(arg.indexOf('=') + 1));
+        }
+
+        return new LoadConfig(
+                parseMix(values.get("mix")),
+                Arrays.stream(values.get("concurrency").split(",")).map(String::trim).map(Integer::parseInt).toList(),
+                Integer.parseInt(values.get("warmup")),
+                Integer.parseInt(values.get("duration")),
+                values.get("resolution"),
+                Integer.parseInt(values.get("images")),
+                Long.parseLong(values.get("seed")),
+                Arrays.stream(values.get("detectors").split(",")).map(String::trim).toList(),
+                Boolean.parseBoolean(values.get("persist")),
+                Boolean.parseBoolean(values.get("result-cache")),
+                values.get("server-jvm-args"),
+                Path.of(values.get("output"))
+        );
+    }
+
+    // "brightness:4,filter:4,features:2" -> relative weights per operation
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            String operation = pair[0];
+            if (!Workload.OPERATIONS.contains(operation)) {
+                throw new IllegalArgumentException("Unknown operation " + operation + ", expected one of "
+                        + Workload.OPERATIONS);
+            }
+            weights.put(operation, pair.length > 1 ? Integer.parseInt(pair[1]) : 1);
+        }
+        return weights;
+    }
+
+    List<String> serverJvmArgList() {
+        return serverJvmArgs.isBlank() ? List.of() : new ArrayList<>(Arrays.asList(serverJvmArgs.trim().split("\\s+")));
+    }
+
+    Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("mix", mix);
+        description.put("concurrency", concurrency);
+        description.put("warmupSeconds", warmupSeconds);
+        description.put("durationSeconds", durationSeconds);
+        description.put("resolution", resolution);
+        description.put("images", images);
+        description.put("seed", seed);
+        description.put("detectors", detectors);
+        description.put("persist", persist);
+        description.put("resultCache", resultCache);
+        description.put("serverJvmArgs", serverJvmArgs);
+        return description;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Runs DemoApplication in a child JVM on the load test's own classpath, so
+ * the load generator neither competes for the server's heap nor shows up
+ * in its memory figures. The server gets a free port, a throwaway upload
+ * directory and an in-memory job database, and its log goes to
+ * target/loadtest-server.log.
+ */
+final class LoadServer implements AutoCloseable {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final Process process;
+    private final Path uploadDir;
+    private final URI baseUri;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+
+    private LoadServer(Process process, Path uploadDir, int port, HttpClient client, ObjectMapper objectMapper) {
+        this.process = process;
+        this.uploadDir = uploadDir;
+        this.baseUri = URI.create("http://localhost:" + port);
+        this.client = client;
+        this.objectMapper = objectMapper;
+    }
+
+    static LoadServer start(LoadConfig config, HttpClient client, ObjectMapper objectMapper)
+            throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Path uploadDir = Files.createTempDirectory("loadtest-uploads");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(config.serverJvmArgList());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DemoApplication.class.getName());
+        command.add("--server.port=" + port);
+        command.add("--upload.dir=" + uploadDir + "/");
+        command.add("--spring.datasource.url=jdbc:h2:mem:loadtest");
+        if (!config.resultCache()) {
+            // Every request is computed, instead of measuring cache lookups
+            command.add("--result.cache.max-entries=0");
+        }
+
+        Path log = Path.of("target", "loadtest-server.log");
+        Files.createDirectories(log.getParent());
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+
+        LoadServer server = new LoadServer(process, uploadDir, port, client, objectMapper);
+        server.awaitReady(log);
+        return server;
+    }
+
+    URI uri(String path) {
+        return baseUri.resolve(path);
+    }
+
+    /**
+     * Uploads an encoded image and returns the name the server stored it
+     * under.
+     */
+    String upload(byte[] image, String filename) throws IOException, InterruptedException {
+        String boundary = "loadtest-" + UUID.randomUUID();
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        HttpRequest request = HttpRequest.newBuilder(uri("/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, image, tail)))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Upload failed with " + response.statusCode() + ": " + response.body());
+        }
+        return objectMapper.readTree(response.body()).get("originalImage").asText();
+    }
+
+    /**
+     * Samples the server's resident set size and committed heap. With a
+     * fixed heap, growth in their difference is native memory, which is
+     * where OpenCV allocates.
+     */
+    Memory memory() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri("/actuator/metrics/jvm.memory.committed?tag=area:heap"))
+                .GET()
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        JsonNode measurements = objectMapper.readTree(response.body()).get("measurements");
+        long heapCommitted = measurements == null ? -1 : measurements.get(0).get("value").asLong();
+        return new Memory(residentSetSize(), heapCommitted);
+    }
+
+    // VmRSS from /proc; -1 where there is no /proc (macOS, Windows)
+    private long residentSetSize() throws IOException {
+        Path status = Path.of("/proc", String.valueOf(process.pid()), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        return -1;
+    }
+
+    private void awaitReady(Path log) throws IOException, InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(uri("/actuator/health")).GET().build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Server exited with " + process.exitValue() + ", see " + log);
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(250);
+        }
+        close();
+        throw new IllegalStateException("Server did not become healthy within " + STARTUP_TIMEOUT + ", see " + log);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        process.destroy();
+        process.waitFor();
+        try (Stream<Path> paths = Files.walk(uploadDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    record Memory(long residentBytes, long heapCommittedBytes) {
+
+        long nativeBytes() {
+            return residentBytes < 0 || heapCommittedBytes < 0 ? -1 : residentBytes - heapCommittedBytes;
+        }
+    }
+}
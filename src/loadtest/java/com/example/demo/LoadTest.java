@@ -0,0 +1,243 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Closed-loop load test of the ImageController endpoints. Starts the
+ * application in a child JVM, uploads seeded synthetic images, then for
+ * each concurrency level runs that many workers, each sending its next
+ * request as soon as the previous one completes. Only requests started
+ * after the warmup and completed before the end of the stage are counted.
+ *
+ * <p>Per stage it reports throughput, p50/p95/p99 latency overall and per
+ * operation, the error rate, 429 rejections, and how much native memory
+ * the server grew by. The report is written as JSON (by default
+ * target/loadtest-result.json) with the configuration that produced it.
+ *
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--mix=brightness:1,features:1 --concurrency=4,16"
+ * </pre>
+ */
+public final class LoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(1);
+
+    private final LoadConfig config;
+    private final LoadServer server;
+    private final HttpClient client;
+    private final Workload workload;
+
+    private LoadTest(LoadConfig config, LoadServer server, HttpClient client, Workload workload) {
+        this.config = config;
+        this.server = server;
+        this.client = client;
+        this.workload = workload;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        Instant startedAt = Instant.now();
+        SyntheticImages.loadOpenCv();
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        try (LoadServer server = LoadServer.start(config, client, objectMapper)) {
+            List<String> images = uploadImages(config, server);
+            Workload workload = new Workload(config.mix(), images, config.detectors(), config.persist(), objectMapper);
+            LoadTest loadTest = new LoadTest(config, server, client, workload);
+
+            System.out.printf("%11s %10s %9s %9s %9s %8s %9s %12s%n",
+                    "concurrency", "req/s", "p50 ms", "p95 ms", "p99 ms", "errors", "rejected", "native MB");
+            List<Map<String, Object>> stages = new ArrayList<>();
+            for (int concurrency : config.concurrency()) {
+                Map<String, Object> stage = loadTest.runStage(concurrency);
+                stages.add(stage);
+                printStage(stage);
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("startedAt", startedAt.toString());
+            report.put("config", config.describe());
+            report.put("environment", Map.of(
+                    "availableProcessors", Runtime.getRuntime().availableProcessors(),
+                    "javaVersion", System.getProperty("java.version"),
+                    "os", System.getProperty("os.name") + " " + System.getProperty("os.arch")
+            ));
+            report.put("stages", stages);
+            Files.createDirectories(config.output().toAbsolutePath().getParent());
+            objectMapper.writeValue(config.output().toFile(), report);
+            System.out.println("Report written to " + config.output());
+        }
+    }
+
+    private static List<String> uploadImages(LoadConfig config, LoadServer server)
+            throws IOException, InterruptedException {
+        String[] size = config.resolution().split("x");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < config.images(); i++) {
+            Mat image = SyntheticImages.create(Integer.parseInt(size[0]), Integer.parseInt(size[1]), config.seed() + i);
+            MatOfByte encoded = new MatOfByte();
+            MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 90);
+            try {
+                Imgcodecs.imencode(".jpg", image, encoded, params);
+                names.add(server.upload(encoded.toArray(), "loadtest_" + i + ".jpg"));
+            } finally {
+                image.release();
+                encoded.release();
+                params.release();
+            }
+        }
+        return names;
+    }
+
+    private Map<String, Object> runStage(int concurrency) throws Exception {
+        long startedAt = System.nanoTime();
+        long measureFrom = startedAt + Duration.ofSeconds(config.warmupSeconds()).toNanos();
+        long measureUntil = measureFrom + Duration.ofSeconds(config.durationSeconds()).toNanos();
+
+        List<Map<String, LatencyRecorder>> recorders = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Map<String, LatencyRecorder> byOperation = new HashMap<>();
+            recorders.add(byOperation);
+            Random random = new Random(config.seed() + i);
+            workers.add(Thread.ofVirtual().name("load-worker-" + i)
+                    .start(() -> work(random, byOperation, measureFrom, measureUntil)));
+        }
+
+        sleepUntil(measureFrom);
+        LoadServer.Memory before = server.memory();
+        sleepUntil(measureUntil);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        LoadServer.Memory after = server.memory();
+
+        TreeSet<String> operations = new TreeSet<>();
+        recorders.forEach(byOperation -> operations.addAll(byOperation.keySet()));
+        Map<String, Object> perOperation = new LinkedHashMap<>();
+        for (String operation : operations) {
+            perOperation.put(operation, summarize(LatencyRecorder.merge(recorders.stream()
+                    .map(byOperation -> byOperation.get(operation))
+                    .filter(recorder -> recorder != null)
+                    .toList())));
+        }
+
+        Map<String, Object> stage = new LinkedHashMap<>();
+        stage.put("concurrency", concurrency);
+        stage.putAll(summarize(LatencyRecorder.merge(recorders.stream()
+                .flatMap(byOperation -> byOperation.values().stream())
+                .toList())));
+        stage.put("residentBytesBefore", before.residentBytes());
+        stage.put("residentBytesAfter", after.residentBytes());
+        stage.put("nativeBytesBefore", before.nativeBytes());
+        stage.put("nativeBytesAfter", after.nativeBytes());
+        stage.put("nativeGrowthBytes", before.nativeBytes() < 0 || after.nativeBytes() < 0
+                ? -1 : after.nativeBytes() - before.nativeBytes());
+        stage.put("operations", perOperation);
+        return stage;
+    }
+
+    private void work(Random random, Map<String, LatencyRecorder> byOperation, long measureFrom, long measureUntil) {
+        while (System.nanoTime() < measureUntil) {
+            Workload.Request next;
+            try {
+                next = workload.next(random);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            HttpRequest request = HttpRequest.newBuilder(server.uri(next.path()))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(next.body()))
+                    .build();
+
+            long start = System.nanoTime();
+            int status;
+            try {
+                status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long end = System.nanoTime();
+            if (start < measureFrom || end > measureUntil) {
+                continue;
+            }
+
+            LatencyRecorder recorder = byOperation.computeIfAbsent(next.operation(), operation -> new LatencyRecorder());
+            if (status == 200) {
+                recorder.success(end - start);
+            } else if (status == 429) {
+                recorder.rejected();
+            } else {
+                recorder.error();
+            }
+        }
+    }
+
+    private Map<String, Object> summarize(LatencyRecorder.Summary summary) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("requests", summary.requests());
+        result.put("succeeded", summary.succeeded());
+        result.put("errors", summary.errors());
+        result.put("rejected", summary.rejected());
+        result.put("throughputPerSecond", round((double) summary.succeeded() / config.durationSeconds()));
+        result.put("errorRate", summary.requests() == 0 ? 0 : round((double) summary.errors() / summary.requests()));
+        result.put("rejectedRate", summary.requests() == 0 ? 0 : round((double) summary.rejected() / summary.requests()));
+        result.put("p50Millis", round(summary.percentileMillis(50)));
+        result.put("p95Millis", round(summary.percentileMillis(95)));
+        result.put("p99Millis", round(summary.percentileMillis(99)));
+        result.put("maxMillis", round(summary.percentileMillis(100)));
+        return result;
+    }
+
+    private static void printStage(Map<String, Object> stage) {
+        long nativeGrowth = (long) stage.get("nativeGrowthBytes");
+        System.out.printf("%11d %10.1f %9.1f %9.1f %9.1f %7.2f%% %8.2f%% %12s%n",
+                stage.get("concurrency"),
+                stage.get("throughputPerSecond"),
+                stage.get("p50Millis"),
+                stage.get("p95Millis"),
+                stage.get("p99Millis"),
+                (double) stage.get("errorRate") * 100,
+                (double) stage.get("rejectedRate") * 100,
+                nativeGrowth < 0 ? "n/a" : String.format("%+.1f", nativeGrowth / 1048576.0));
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long remaining = nanoTime - System.nanoTime();
+        if (remaining > 0) {
+            Thread.sleep(Duration.ofNanos(remaining));
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
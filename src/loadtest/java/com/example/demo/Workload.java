@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Draws requests from the configured mix. Each worker draws from its own
+ * seeded Random, so a given worker sends the same sequence of operations,
+ * images and parameters in every run.
+ */
+final class Workload {
+
+    static final Set<String> OPERATIONS = Set.of(
+            "brightness", "channel", "grayscale", "prewitt", "filter", "features", "fusion");
+
+    private static final List<String> FILTERS = List.of("average", "disk", "gaussian", "laplacian", "sobel", "log");
+    private static final List<String> CHANNELS = List.of("red", "green", "blue");
+
+    private final String[] operations;
+    private final int[] cumulativeWeights;
+    private final List<String> images;
+    private final List<String> detectors;
+    private final boolean persist;
+    private final ObjectMapper objectMapper;
+
+    Workload(Map<String, Integer> mix, List<String> images, List<String> detectors, boolean persist,
+             ObjectMapper objectMapper) {
+        this.operations = mix.keySet().toArray(new String[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+        this.images = images;
+        this.detectors = detectors;
+        this.persist = persist;
+        this.objectMapper = objectMapper;
+    }
+
+    Request next(Random random) throws JsonProcessingException {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = 0;
+        while (draw >= cumulativeWeights[index]) {
+            index++;
+        }
+        String operation = operations[index];
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("currentImage", pick(random, images));
+        body.put("persist", persist);
+        String path = switch (operation) {
+            case "brightness" -> {
+                body.put("value", 0.5f + random.nextInt(101) / 100f);
+                yield "/adjust-brightness";
+            }
+            case "channel" -> {
+                body.put("channel", pick(random, CHANNELS));
+                body.put("value", random.nextInt(101) - 50);
+                yield "/adjust-channel";
+            }
+            case "grayscale" -> "/grb2gray";
+            case "prewitt" -> "/prewitt";
+            case "filter" -> {
+                body.put("filterType", pick(random, FILTERS));
+                yield "/apply-filter";
+            }
+            case "features" -> {
+                body.put("detectorType", pick(random, detectors));
+                yield "/detect-features";
+            }
+            case "fusion" -> {
+                body.put("secondImage", pick(random, images));
+                body.put("blendValue", random.nextInt(101) / 100f);
+                yield "/image-fusion";
+            }
+            default -> throw new IllegalStateException("Unhandled operation " + operation);
+        };
+        return new Request(operation, path, objectMapper.writeValueAsString(body));
+    }
+
+    private static String pick(Random random, List<String> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    record Request(String operation, String path, String body) {
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class BatchController {
+
+    private final BatchService batchService;
+    private final OutputFormats outputFormats;
+    private final ObjectMapper objectMapper;
+
+    public BatchController(BatchService batchService, OutputFormats outputFormats, ObjectMapper objectMapper) {
+        this.batchService = batchService;
+        this.outputFormats = outputFormats;
+        this.objectMapper = objectMapper;
+    }
+
+    // {"filenames": [...], "operations": [...]} with operations, and the optional
+    // "format" and "quality", as for /pipeline
+    @PostMapping("/batch")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> submitBatch(@RequestBody Map<String, Object> body) {
+        List<String> filenames = (List<String>) body.get("filenames");
+        if (filenames == null) {
+            throw new IllegalArgumentException("Batch requires at least one image");
+        }
+        List<Map<String, Object>> operations = (List<Map<String, Object>>) body.get("operations");
+
+        BatchJob job = batchService.submitStored(filenames, operations,
+                outputFormats.forPipeline(body, operations == null ? List.of() : operations));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.status());
+    }
+
+    @PostMapping(value = "/batch/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> submitArchive(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("operations") String operationsJson,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "quality", required = false) Integer quality
+    ) throws IOException {
+        List<Map<String, Object>> operations = objectMapper.readValue(operationsJson, new TypeReference<>() {});
+        Map<String, Object> encoding = new HashMap<>();
+        encoding.put("format", format);
+        encoding.put("quality", quality);
+
+        BatchJob job = batchService.submitArchive(file.getInputStream(), operations,
+                outputFormats.forPipeline(encoding, operations));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.status());
+    }
+
+    @GetMapping("/batch/{jobId}")
+    public ResponseEntity<?> batchStatus(@PathVariable String jobId) {
+        BatchJob job = batchService.find(jobId);
+        Map<String, Object> response = new HashMap<>(job.status());
+        response.put("manifest", job.manifest());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/batch/{jobId}/results")
+    public ResponseEntity<?> batchResults(@PathVariable String jobId) {
+        BatchJob job = batchService.find(jobId);
+        if (!job.done()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(job.status());
+        }
+
+        StreamingResponseBody body = out -> batchService.writeResults(job, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch_" + jobId + ".zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+}
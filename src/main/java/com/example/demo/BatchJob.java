@@ -0,0 +1,85 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Progress and per-item outcome of one batch run. Items complete in any
+ * order; the manifest always lists them in submission order.
+ */
+public class BatchJob {
+
+    private final String id;
+    private final List<String> sources;
+    private final String[] outputs;
+    private final String[] errors;
+    private int succeeded;
+    private int failed;
+
+    BatchJob(String id, List<String> sources) {
+        this.id = id;
+        this.sources = List.copyOf(sources);
+        this.outputs = new String[sources.size()];
+        this.errors = new String[sources.size()];
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public synchronized boolean done() {
+        return succeeded + failed == sources.size();
+    }
+
+    synchronized void succeeded(int index, String filename) {
+        outputs[index] = filename;
+        succeeded++;
+    }
+
+    synchronized void failed(int index, String error) {
+        errors[index] = error;
+        failed++;
+    }
+
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", id);
+        status.put("state", done() ? "done" : "running");
+        status.put("total", sources.size());
+        status.put("succeeded", succeeded);
+        status.put("failed", failed);
+        status.put("progress", sources.isEmpty() ? 1.0 : (double) (succeeded + failed) / sources.size());
+        return status;
+    }
+
+    /**
+     * One row per input: its result filename, its error, or neither while
+     * it is still being processed.
+     */
+    public synchronized List<Map<String, Object>> manifest() {
+        List<Map<String, Object>> rows = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("source", sources.get(i));
+            if (outputs[i] != null) {
+                row.put("processedImage", outputs[i]);
+            } else if (errors[i] != null) {
+                row.put("error", errors[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    synchronized List<String> outputs() {
+        List<String> filenames = new ArrayList<>();
+        for (String output : outputs) {
+            if (output != null) {
+                filenames.add(output);
+            }
+        }
+        return filenames;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies one list of pipeline operations to many images. Every item is
+ * decoded, processed and encoded on its own virtual thread, so one item's
+ * decode or encode overlaps other items' native work on the
+ * {@link ComputeExecutor}. A semaphore caps how many items are in flight,
+ * which bounds the decoded images held in native memory however large the
+ * batch is. Archive entries are spooled to temporary files as they are
+ * read, so the heap likewise holds only the entries in flight. Items wait
+ * for a free compute slot rather than failing when interactive requests
+ * have filled the queue.
+ */
+@Service
+public class BatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchService.class);
+    private static final long MAX_ENTRY_BYTES = 10 * 1024 * 1024;
+
+    private final FileStorageService fileStorageService;
+    private final ImagePipelineService imagePipelineService;
+    private final ComputeExecutor computeExecutor;
+    private final ObjectMapper objectMapper;
+    private final ImageStore imageStore;
+    private final int maxInFlight;
+    private final int maxItems;
+    private final int maxJobs;
+    private final long maxArchiveBytes;
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    // insertion-ordered, so the oldest finished job is dropped first
+    private final LinkedHashMap<String, BatchJob> jobs = new LinkedHashMap<>();
+
+    public BatchService(
+            FileStorageService fileStorageService,
+            ImagePipelineService imagePipelineService,
+            ComputeExecutor computeExecutor,
+            ObjectMapper objectMapper,
+            ImageStore imageStore,
+            @Value("${batch.max-in-flight:0}") int maxInFlight,
+            @Value("${batch.max-items:1000}") int maxItems,
+            @Value("${batch.max-jobs:16}") int maxJobs,
+            @Value("${batch.max-archive-bytes:1073741824}") long maxArchiveBytes
+    ) {
+        this.fileStorageService = fileStorageService;
+        this.imagePipelineService = imagePipelineService;
+        this.computeExecutor = computeExecutor;
+        this.objectMapper = objectMapper;
+        this.imageStore = imageStore;
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : Runtime.getRuntime().availableProcessors() * 2;
+        this.maxItems = maxItems;
+        this.maxJobs = maxJobs;
+        this.maxArchiveBytes = maxArchiveBytes;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Starts a batch over images already in the image store.
+     */
+    public BatchJob submitStored(List<String> filenames, List<Map<String, Object>> operations, OutputFormat format) {
+        List<Item> items = new ArrayList<>(filenames.size());
+        for (String filename : filenames) {
+            items.add(new Item(filename, null));
+        }
+        return submit(items, operations, format, null);
+    }
+
+    /**
+     * Starts a batch over the image entries of a zip archive. Entries are
+     * spooled to a temporary directory, which is removed once the job has
+     * finished, and never written to the image store; only their results
+     * are. The archive is rejected as soon as its decompressed size passes
+     * batch.max-archive-bytes, whatever its compressed size.
+     */
+    public BatchJob submitArchive(InputStream archive, List<Map<String, Object>> operations, OutputFormat format)
+            throws IOException {
+        Path spoolDir = Files.createTempDirectory("batch");
+        try {
+            List<Item> items = spool(archive, spoolDir);
+            return submit(items, operations, format, spoolDir);
+        } catch (IOException | RuntimeException e) {
+            deleteSpool(spoolDir);
+            throw e;
+        }
+    }
+
+    private List<Item> spool(InputStream archive, Path spoolDir) throws IOException {
+        List<Item> items = new ArrayList<>();
+        long totalBytes = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (ZipInputStream zip = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (items.size() == maxItems) {
+                    throw new IllegalArgumentException("Batch exceeds the " + maxItems + " image limit");
+                }
+
+                // One byte past the limit is enough for decodeImage to reject
+                // the entry. The rest is drained here rather than by
+                // getNextEntry, so it still counts towards the archive limit.
+                Path spooled = spoolDir.resolve(items.size() + ".entry");
+                try (OutputStream out = Files.newOutputStream(spooled)) {
+                    long entryBytes = 0;
+                    int read;
+                    while ((read = zip.read(buffer)) != -1) {
+                        totalBytes += read;
+                        if (totalBytes > maxArchiveBytes) {
+                            throw new IllegalArgumentException(
+                                    "Archive exceeds the " + maxArchiveBytes + " byte decompressed size limit");
+                        }
+                        int kept = (int) Math.max(0, Math.min(read, MAX_ENTRY_BYTES + 1 - entryBytes));
+                        out.write(buffer, 0, kept);
+                        entryBytes += read;
+                    }
+                }
+                items.add(new Item(Paths.get(entry.getName()).getFileName().toString(), spooled));
+            }
+        }
+        return items;
+    }
+
+    public BatchJob find(String jobId) {
+        synchronized (jobs) {
+            BatchJob job = jobs.get(jobId);
+            if (job == null) {
+                throw new IllegalArgumentException("Unknown batch job: " + jobId);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Streams every successful result of a finished job as a zip, followed
+     * by manifest.json mapping each source to its result or error.
+     */
+    public void writeResults(BatchJob job, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // The results are already compressed images; deflating them again
+        // costs CPU and saves next to nothing.
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        for (String filename : job.outputs()) {
+            Path path;
+            try {
+                path = imageStore.localPath(filename);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            zip.putNextEntry(new ZipEntry(filename));
+            Files.copy(path, zip);
+            zip.closeEntry();
+        }
+        zip.putNextEntry(new ZipEntry("manifest.json"));
+        zip.write(objectMapper.writeValueAsBytes(job.manifest()));
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    private BatchJob submit(List<Item> items, List<Map<String, Object>> operations, OutputFormat format,
+                            Path spoolDir) {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("Batch requires at least one image");
+        }
+        if (items.size() > maxItems) {
+            throw new IllegalArgumentException("Batch exceeds the " + maxItems + " image limit");
+        }
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Batch requires at least one operation");
+        }
+
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), items.stream().map(Item::name).toList());
+        register(job);
+        workers.submit(() -> run(job, items, operations, format, spoolDir));
+        return job;
+    }
+
+    private void register(BatchJob job) {
+        synchronized (jobs) {
+            if (jobs.size() >= maxJobs) {
+                Iterator<BatchJob> it = jobs.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().done()) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            if (jobs.size() >= maxJobs) {
+                throw new ComputeBusyException("Too many batch jobs running, please retry later");
+            }
+            jobs.put(job.id(), job);
+        }
+    }
+
+    // Producer: hands items to workers no faster than permits come back.
+    private void run(BatchJob job, List<Item> items, List<Map<String, Object>> operations, OutputFormat format,
+                     Path spoolDir) {
+        Semaphore permits = new Semaphore(maxInFlight);
+        for (int i = 0; i < items.size(); i++) {
+            int index = i;
+            permits.acquireUninterruptibly();
+            workers.submit(() -> {
+                try {
+                    job.succeeded(index, process(job, index, items.get(index), operations, format));
+                } catch (Exception e) {
+                    job.failed(index, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+        if (spoolDir != null) {
+            // Every permit back means every item has finished with its entry
+            permits.acquireUninterruptibly(maxInFlight);
+            deleteSpool(spoolDir);
+        }
+    }
+
+    private String process(BatchJob job, int index, Item item, List<Map<String, Object>> operations,
+                           OutputFormat format) throws Exception {
+        try (MatScope scope = new MatScope()) {
+            Mat image = scope.track(decode(item));
+            Mat processedImage = scope.track(computeExecutor.executeWhenFree(() ->
+                    imagePipelineService.run(image, operations)));
+            // Results of zip entries have no stored source to descend from
+            List<String> sources = item.spooled() == null ? List.of(item.name()) : List.of();
+            return fileStorageService.saveProcessedImage(processedImage, "batch_" + job.id() + "_" + index,
+                    sources, format);
+        }
+    }
+
+    private Mat decode(Item item) throws FileValidationException, IOException {
+        if (item.spooled() == null) {
+            // Read past ImageCache, so a folder run does not evict the
+            // images interactive requests are working on.
+            return ImageUtils.readImage(imageStore.localPath(item.name()).toString());
+        }
+        return fileStorageService.decodeImage(item.name(), Files.readAllBytes(item.spooled()));
+    }
+
+    private void deleteSpool(Path spoolDir) {
+        try (Stream<Path> paths = Files.walk(spoolDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete batch spool directory: {}", spoolDir, e);
+        }
+    }
+
+    // spooled is null for images read from the image store
+    private record Item(String name, Path spooled) {
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local read-through cache in front of a remote store. Reads are
+ * served from a copy on local disk, fetched on first use; writes go to the
+ * remote store and are kept locally as well, so the node that produced a
+ * file never reads it back over the network. Names are never rewritten, so
+ * a local copy cannot go stale and is only dropped to stay under the size
+ * bound or when the file is deleted.
+ *
+ * <p>A copy handed out by {@link #localPath(String)} is not evicted for
+ * thirty seconds afterwards, which leaves the caller time to open it;
+ * once open, deleting the name does not disturb the reader. While every
+ * copy is that recent the cache may run over its bound.
+ *
+ * <p>Existence and metadata always come from the remote store: a name
+ * handed to a client must be readable on every node, not just this one.
+ */
+public class CachingImageStore implements ImageStore, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingImageStore.class);
+    private static final long PIN_MILLIS = 30_000;
+
+    private final ImageStore remote;
+    private final LocalImageStore local;
+    private final long maxBytes;
+
+    // access-ordered, so iteration starts at the least recently read copy
+    private final LinkedHashMap<String, Copy> copies = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingImageStore(ImageStore remote, LocalImageStore local, long maxBytes) throws IOException {
+        this.remote = remote;
+        this.local = local;
+        this.maxBytes = maxBytes;
+
+        // Copies left by a previous run are still valid; oldest first, so
+        // they are also the first to go
+        List<StoredFile> existing = local.list().stream()
+                .sorted(Comparator.comparingLong(StoredFile::lastModified))
+                .toList();
+        for (StoredFile file : existing) {
+            // Nobody holds these yet, so they need no pin
+            record(file.name(), file.size(), 0);
+        }
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        remote.put(name, data);
+        local.put(name, data);
+        record(name, data.length, System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return remote.exists(name);
+    }
+
+    @Override
+    public long size(String name) {
+        return remote.size(name);
+    }
+
+    @Override
+    public long lastModified(String name) {
+        return remote.lastModified(name);
+    }
+
+    @Override
+    public Path localPath(String name) throws IOException {
+        synchronized (this) {
+            Copy copy = copies.get(name);
+            if (copy != null) {
+                hits.incrementAndGet();
+                copy.lastRead = System.currentTimeMillis();
+                return local.localPath(name);
+            }
+        }
+
+        // Fetched outside the lock; two nodes' or two requests' copies of
+        // the same name are identical, so a duplicate fetch is harmless
+        misses.incrementAndGet();
+        local.copy(remote.localPath(name), name);
+        Path path = local.localPath(name);
+        record(name, Files.size(path), System.currentTimeMillis());
+        return path;
+    }
+
+    @Override
+    public void touch(String name) {
+        remote.touch(name);
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        synchronized (this) {
+            Copy copy = copies.remove(name);
+            if (copy != null) {
+                currentBytes -= copy.size;
+            }
+        }
+        local.delete(name);
+        remote.delete(name);
+    }
+
+    @Override
+    public List<StoredFile> list() throws IOException {
+        return remote.list();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("storage.local.gets", hits, AtomicLong::get)
+                .description("Reads served from a local copy or fetched from the remote store")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("storage.local.gets", misses, AtomicLong::get)
+                .description("Reads served from a local copy or fetched from the remote store")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("storage.local.copies", this, CachingImageStore::copyCount)
+                .description("Remote files with a copy on local disk")
+                .register(registry);
+        Gauge.builder("storage.local.bytes", this, CachingImageStore::currentBytes)
+                .description("Total size of the local copies")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private synchronized double copyCount() {
+        return copies.size();
+    }
+
+    private synchronized double currentBytes() {
+        return currentBytes;
+    }
+
+    private synchronized void record(String name, long size, long lastRead) {
+        Copy previous = copies.put(name, new Copy(size, lastRead));
+        if (previous != null) {
+            currentBytes -= previous.size;
+        }
+        currentBytes += size;
+
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Copy>> it = copies.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Copy> eldest = it.next();
+            if (now - eldest.getValue().lastRead < PIN_MILLIS) {
+                // Copies are in read order, so every later one is pinned too;
+                // this includes the copy the caller is about to read
+                break;
+            }
+            it.remove();
+            currentBytes -= eldest.getValue().size;
+            try {
+                local.delete(eldest.getKey());
+            } catch (IOException e) {
+                log.warn("Failed to delete local copy: {}", eldest.getKey(), e);
+            }
+        }
+    }
+
+    private static final class Copy {
+        final long size;
+        long lastRead;
+
+        Copy(long size, long lastRead) {
+            this.size = size;
+            this.lastRead = lastRead;
+        }
+    }
+}
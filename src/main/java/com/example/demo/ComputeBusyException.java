@@ -0,0 +1,7 @@
+package com.example.demo;
+
+public class ComputeBusyException extends RuntimeException {
+    public ComputeBusyException(String message) {
+        super(message);
+    }
+}
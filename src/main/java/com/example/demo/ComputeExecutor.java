@@ -0,0 +1,126 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of platform threads for native OpenCV work. Request threads
+ * (virtual) block on the result while the pool bounds how many operations
+ * run at once; when the queue is full new work is rejected with
+ * {@link ComputeBusyException} rather than oversubscribing the CPUs.
+ */
+@Component
+public class ComputeExecutor implements MeterBinder {
+
+    private static final long BACKGROUND_RETRY_MILLIS = 50;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore backgroundPermits;
+
+    public ComputeExecutor(
+            @Value("${compute.pool.size:0}") int poolSize,
+            @Value("${compute.queue.capacity:64}") int queueCapacity
+    ) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                threadFactory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        // Leave at least one worker to interactive requests when there is more than one
+        this.backgroundPermits = new Semaphore(Math.max(1, threads - 1));
+    }
+
+    public <T> T execute(Callable<T> task) throws Exception {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ComputeBusyException("Server is busy, please retry later");
+        }
+        return await(future);
+    }
+
+    /**
+     * Like {@link #execute(Callable)}, but waits for room instead of
+     * rejecting. For background work, where no client is waiting on a timely
+     * 429. Background callers are admitted through their own semaphore, one
+     * short of the pool size, so they can never fill the pool or the queue
+     * that interactive requests rely on; when the queue is full anyway they
+     * back off and retry rather than take the last slots.
+     */
+    public <T> T executeWhenFree(Callable<T> task) throws Exception {
+        backgroundPermits.acquire();
+        try {
+            Future<T> future;
+            while (true) {
+                try {
+                    future = executor.submit(task);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    if (executor.isShutdown()) {
+                        throw e;
+                    }
+                    Thread.sleep(BACKGROUND_RETRY_MILLIS);
+                }
+            }
+            return await(future);
+        } finally {
+            backgroundPermits.release();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    // executor.active, executor.queued, executor.completed, ... tagged name=compute
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, "compute", List.of()).bindTo(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "opencv-compute-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.demo;
+
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunables for the feature detectors. Defaults match OpenCV's own create()
+ * defaults, so omitting a parameter keeps the previous behaviour.
+ *
+ * <p>{@code roi} and {@code mask} restrict detection to part of the image:
+ * a rectangle, and a polygon in image coordinates, either or both. Only
+ * their bounding box is converted and searched. {@code scale} below 1
+ * detects on the region downscaled by that factor and maps the keypoints
+ * back to full resolution.
+ */
+public record DetectorParams(
+        int fastThreshold,
+        boolean fastNonmaxSuppression,
+        int kazeOctaves,
+        int kazeOctaveLayers,
+        float kazeThreshold,
+        int mserDelta,
+        int mserMinArea,
+        int mserMaxArea,
+        int maxKeypoints,
+        Rect roi,
+        List<Point> mask,
+        double scale
+) {
+
+    // maxKeypoints 0 falls back to the service-wide features.max-keypoints cap
+    // (none by default); a null roi and an empty mask mean the whole image
+    public static final DetectorParams DEFAULT = new DetectorParams(10, true, 4, 4, 0.001f, 5, 60, 14400, 0,
+            null, List.of(), 1);
+
+    public DetectorParams {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("scale must be greater than 0 and at most 1");
+        }
+        if (!mask.isEmpty() && mask.size() < 3) {
+            throw new IllegalArgumentException("mask needs at least three points");
+        }
+    }
+
+    public static DetectorParams from(Map<String, Object> body) {
+        return new DetectorParams(
+                intParam(body, "fastThreshold", DEFAULT.fastThreshold),
+                body.containsKey("fastNonmaxSuppression")
+                        ? Boolean.parseBoolean(body.get("fastNonmaxSuppression").toString())
+                        : DEFAULT.fastNonmaxSuppression,
+                intParam(body, "kazeOctaves", DEFAULT.kazeOctaves),
+                intParam(body, "kazeOctaveLayers", DEFAULT.kazeOctaveLayers),
+                body.containsKey("kazeThreshold")
+                        ? Float.parseFloat(body.get("kazeThreshold").toString())
+                        : DEFAULT.kazeThreshold,
+                intParam(body, "mserDelta", DEFAULT.mserDelta),
+                intParam(body, "mserMinArea", DEFAULT.mserMinArea),
+                intParam(body, "mserMaxArea", DEFAULT.mserMaxArea),
+                intParam(body, "maxKeypoints", DEFAULT.maxKeypoints),
+                roi(body.get("roi")),
+                mask(body.get("mask")),
+                body.containsKey("scale") ? Double.parseDouble(body.get("scale").toString()) : DEFAULT.scale
+        );
+    }
+
+    public boolean multiScale() {
+        return scale < 1;
+    }
+
+    // {"x": 100, "y": 50, "width": 640, "height": 480}
+    private static Rect roi(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof Map<?, ?> roi)) {
+            throw new IllegalArgumentException("roi must be an object with x, y, width and height");
+        }
+        Rect rect = new Rect(coordinate(roi.get("x")), coordinate(roi.get("y")),
+                coordinate(roi.get("width")), coordinate(roi.get("height")));
+        if (rect.width <= 0 || rect.height <= 0) {
+            throw new IllegalArgumentException("roi width and height must be positive");
+        }
+        return rect;
+    }
+
+    // [[x, y], [x, y], ...], the vertices of a polygon
+    private static List<Point> mask(Object value) {
+        if (value == null) {
+            return List.of();
+        }
+        if (!(value instanceof List<?> vertices)) {
+            throw new IllegalArgumentException("mask must be a list of [x, y] points");
+        }
+        List<Point> points = new ArrayList<>(vertices.size());
+        for (Object vertex : vertices) {
+            if (!(vertex instanceof List<?> xy) || xy.size() != 2) {
+                throw new IllegalArgumentException("mask must be a list of [x, y] points");
+            }
+            points.add(new Point(coordinate(xy.get(0)), coordinate(xy.get(1))));
+        }
+        return List.copyOf(points);
+    }
+
+    private static int coordinate(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing region coordinate");
+        }
+        return (int) Math.round(Double.parseDouble(value.toString()));
+    }
+
+    // Identifies the detector instance these parameters configure.
+    String detectorKey(String detectorType) {
+        return switch (detectorType) {
+            case "fast" -> "fast:" + fastThreshold + ":" + fastNonmaxSuppression;
+            case "kaze" -> "kaze:" + kazeOctaves + ":" + kazeOctaveLayers + ":" + kazeThreshold;
+            case "mser" -> "mser:" + mserDelta + ":" + mserMinArea + ":" + mserMaxArea;
+            default -> detectorType;
+        };
+    }
+
+    private static int intParam(Map<String, Object> body, String key, int defaultValue) {
+        Object value = body.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.demo;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves stored images with a content-hash ETag, Last-Modified and a
+ * long-lived immutable Cache-Control, answering conditional requests with
+ * 304 and single byte ranges with 206. Stored files are never rewritten
+ * under the same name, so a client's cached copy can never go stale.
+ *
+ * <p>Bodies go out through Tomcat's sendfile support when the connector
+ * offers it, so the kernel copies the file straight to the socket;
+ * otherwise through FileChannel.transferTo.
+ */
+@Service
+public class DownloadService {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final int maxHashEntries;
+
+    // path|size|lastModified -> hex SHA-256, least recently used first
+    private final LinkedHashMap<String, String> hashes;
+
+    public DownloadService(@Value("${download.hash-cache.max-entries:4096}") int maxHashEntries) {
+        this.maxHashEntries = maxHashEntries;
+        this.hashes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > DownloadService.this.maxHashEntries;
+            }
+        };
+    }
+
+    /**
+     * Writes {@code file} as the response; {@code attachment} asks the
+     * browser to save it rather than display it.
+     */
+    public void serve(Path file, boolean attachment, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + hash(file, size, lastModified) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (attachment) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"");
+        }
+        // Sets ETag and Last-Modified, and 304 when the client's copy is current
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        long start = 0;
+        long end = size;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && rangeApplies(request, etag)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            // Multiple ranges would need a multipart body; answering with the
+            // whole file instead is allowed and is what clients resuming a
+            // download ask for anyway.
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                if (size == 0 || range.getRangeStart(size) >= size) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                start = range.getRangeStart(size);
+                end = range.getRangeEnd(size) + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+        }
+
+        response.setContentType(MediaTypeFactory.getMediaType(file.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        response.setContentLengthLong(end - start);
+        if (request.getMethod().equals("HEAD")) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+    // If-Range: the range only holds while the client's copy is the current one
+    private static boolean rangeApplies(HttpServletRequest request, String etag) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        return ifRange == null || ifRange.equals(etag);
+    }
+
+    private String hash(Path file, long size, long lastModified) throws IOException {
+        String key = file.toAbsolutePath() + "|" + size + "|" + lastModified;
+        synchronized (hashes) {
+            String hash = hashes.get(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+
+        String hash = sha256(file);
+        synchronized (hashes) {
+            hashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
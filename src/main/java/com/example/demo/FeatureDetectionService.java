@@ -1,67 +1,365 @@
 package com.example.demo;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.opencv.core.*;
 import org.opencv.features2d.*;
 import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class FeatureDetectionService {
 
+    private static final int MAX_DETECTORS_PER_THREAD = 8;
+    private static final double HARRIS_THRESHOLD = 100;
+    private static final TermCriteria REFINE_CRITERIA =
+            new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 20, 0.03);
+
+    private final int maxKeypoints;
+    private final MeterRegistry meterRegistry;
+
+    // OpenCV detectors are not safe to share between threads, so each compute
+    // thread keeps its own small LRU of configured instances.
+    private final ThreadLocal<Map<String, Feature2D>> detectors = ThreadLocal.withInitial(() ->
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Feature2D> eldest) {
+                    return size() > MAX_DETECTORS_PER_THREAD;
+                }
+            });
+
+    public FeatureDetectionService(
+            @Value("${features.max-keypoints:0}") int maxKeypoints,
+            MeterRegistry meterRegistry
+    ) {
+        this.maxKeypoints = maxKeypoints;
+        this.meterRegistry = meterRegistry;
+    }
+
     public Mat detectFeatures(Mat image, String detectorType) {
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
+        return detectFeatures(image, detectorType, DetectorParams.DEFAULT);
+    }
+
+    public Mat detectFeatures(Mat image, String detectorType, DetectorParams params) {
+        try (MatScope scope = new MatScope()) {
+            MatOfKeyPoint keyPoints = scope.track(detectKeyPoints(image, detectorType, params));
 
-        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+            Mat outputImage = new Mat();
+            Features2d.drawKeypoints(image, keyPoints, outputImage);
+            return outputImage;
+        }
+    }
+
+    /**
+     * Detects keypoints without drawing them, in full-resolution image
+     * coordinates whatever region and scale they were detected at. The
+     * caller owns the returned Mat.
+     *
+     * <p>Only the bounding box of the region of interest is converted to
+     * grayscale and searched, and in multi-scale mode the detector runs on
+     * that box downscaled, so the cost follows the region rather than the
+     * image. Corners found at a reduced scale (harris, fast) are refined
+     * with cornerSubPix, which only reads a small full-resolution window
+     * around each one; blob detectors (kaze, mser) keep their coarse
+     * positions, scaled back up.
+     */
+    public MatOfKeyPoint detectKeyPoints(Mat image, String detectorType, DetectorParams params) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try (MatScope scope = new MatScope()) {
+            Rect region = region(image, params);
+            Mat grayImage = scope.newMat();
+            // submat is a view, so only the region's pixels are converted
+            Imgproc.cvtColor(scope.track(image.submat(region)), grayImage, Imgproc.COLOR_BGR2GRAY);
+            Mat mask = scope.track(regionMask(region, params.mask()));
+
+            Mat searched = grayImage;
+            Mat searchedMask = mask;
+            if (params.multiScale()) {
+                Size coarse = new Size(Math.max(1, Math.round(region.width * params.scale())),
+                        Math.max(1, Math.round(region.height * params.scale())));
+                searched = scope.newMat();
+                Imgproc.resize(grayImage, searched, coarse, 0, 0, Imgproc.INTER_AREA);
+                if (!mask.empty()) {
+                    searchedMask = scope.newMat();
+                    Imgproc.resize(mask, searchedMask, coarse, 0, 0, Imgproc.INTER_NEAREST);
+                }
+            }
 
-        switch(detectorType.toLowerCase()) {
-            case "fast":
-                FastFeatureDetector fast = FastFeatureDetector.create();
-                fast.detect(grayImage, keyPoints);
-                break;
+            MatOfKeyPoint keyPoints = scope.track(new MatOfKeyPoint());
+            String type = detectorType.toLowerCase();
 
-            case "harris":
-                Mat dst = new Mat();
-                Imgproc.cornerHarris(grayImage, dst, 2, 3, 0.04);
-                Mat dstNorm = new Mat();
+            if (type.equals("harris")) {
+                Mat dst = scope.newMat();
+                Imgproc.cornerHarris(searched, dst, 2, 3, 0.04);
+                Mat dstNorm = scope.newMat();
                 Core.normalize(dst, dstNorm, 0, 255, Core.NORM_MINMAX, CvType.CV_32FC1);
-                this.convertHarrisToKeyPoints(dstNorm, keyPoints);
-                break;
+                this.convertHarrisToKeyPoints(dstNorm, searchedMask, keyPoints);
+            } else {
+                detector(type, params).detect(searched, keyPoints, searchedMask);
+            }
+
+            retainStrongest(keyPoints, keypointLimit(params));
+            // After the cap, so refinement looks at no more than limit windows
+            boolean corners = type.equals("harris") || type.equals("fast");
+            toImageCoordinates(keyPoints, region, grayImage, searched, corners);
 
-            case "kaze":
-                KAZE kaze = KAZE.create();
-                kaze.detect(grayImage, keyPoints);
-                break;
+            // Recorded only once the detector type is known to be valid, so
+            // arbitrary request values never become tags.
+            sample.stop(Timer.builder("image.operation")
+                    .description("Time spent in one image operation")
+                    .tag("operation", "features_" + type)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            DistributionSummary.builder("image.keypoints")
+                    .description("Keypoints returned per detection")
+                    .tag("detector", type)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(keyPoints.total());
+            return scope.detach(keyPoints);
+        }
+    }
+
+    /**
+     * Packs keypoints as consecutive (x, y, size, response, angle) floats,
+     * read straight from the native buffer without building KeyPoint objects.
+     */
+    public static float[] toCompactArray(MatOfKeyPoint keyPoints) {
+        int count = (int) keyPoints.total();
+        float[] raw = new float[count * 7];
+        if (count > 0) {
+            keyPoints.get(0, 0, raw);
+        }
 
-            case "mser":
-                MSER mser = MSER.create();
-                mser.detect(grayImage, keyPoints);
-                break;
+        // native layout per keypoint: x, y, size, angle, response, octave, class_id
+        float[] packed = new float[count * 5];
+        for (int i = 0; i < count; i++) {
+            packed[i * 5] = raw[i * 7];
+            packed[i * 5 + 1] = raw[i * 7 + 1];
+            packed[i * 5 + 2] = raw[i * 7 + 2];
+            packed[i * 5 + 3] = raw[i * 7 + 4];
+            packed[i * 5 + 4] = raw[i * 7 + 3];
+        }
+        return packed;
+    }
+
+    private Feature2D detector(String detectorType, DetectorParams params) {
+        return detectors.get().computeIfAbsent(params.detectorKey(detectorType), key -> switch (detectorType) {
+            case "fast" -> FastFeatureDetector.create(params.fastThreshold(), params.fastNonmaxSuppression());
+            case "kaze" -> KAZE.create(false, false, params.kazeThreshold(),
+                    params.kazeOctaves(), params.kazeOctaveLayers());
+            case "mser" -> MSER.create(params.mserDelta(), params.mserMinArea(), params.mserMaxArea());
+            default -> throw new IllegalArgumentException("Unsupported detector type: " + detectorType);
+        });
+    }
 
-            default:
-                throw new IllegalArgumentException("Unsupported detector type: " + detectorType);
+    // The roi clipped to the image, narrowed to the mask polygon's bounding box
+    private static Rect region(Mat image, DetectorParams params) {
+        int x0 = 0;
+        int y0 = 0;
+        int x1 = image.cols();
+        int y1 = image.rows();
+        if (params.roi() != null) {
+            Rect roi = params.roi();
+            x0 = Math.max(x0, roi.x);
+            y0 = Math.max(y0, roi.y);
+            x1 = Math.min(x1, roi.x + roi.width);
+            y1 = Math.min(y1, roi.y + roi.height);
         }
+        if (!params.mask().isEmpty()) {
+            List<Point> mask = params.mask();
+            x0 = Math.max(x0, (int) mask.stream().mapToDouble(p -> p.x).min().getAsDouble());
+            y0 = Math.max(y0, (int) mask.stream().mapToDouble(p -> p.y).min().getAsDouble());
+            x1 = Math.min(x1, (int) mask.stream().mapToDouble(p -> p.x).max().getAsDouble() + 1);
+            y1 = Math.min(y1, (int) mask.stream().mapToDouble(p -> p.y).max().getAsDouble() + 1);
+        }
+        if (x1 <= x0 || y1 <= y0) {
+            throw new IllegalArgumentException("The region of interest lies outside the image");
+        }
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
 
-        Mat outputImage = new Mat();
-        Features2d.drawKeypoints(image, keyPoints, outputImage);
-        return outputImage;
+    // The mask polygon rasterized over the region only; an empty Mat (no mask) without one
+    private static Mat regionMask(Rect region, List<Point> polygon) {
+        if (polygon.isEmpty()) {
+            return new Mat();
+        }
+        Point[] shifted = new Point[polygon.size()];
+        for (int i = 0; i < shifted.length; i++) {
+            shifted[i] = new Point(polygon.get(i).x - region.x, polygon.get(i).y - region.y);
+        }
+        Mat mask = Mat.zeros(region.height, region.width, CvType.CV_8UC1);
+        MatOfPoint vertices = new MatOfPoint(shifted);
+        Imgproc.fillPoly(mask, List.of(vertices), new Scalar(255));
+        vertices.release();
+        return mask;
     }
 
-    private void convertHarrisToKeyPoints(Mat harrisOutput, MatOfKeyPoint keyPoints) {
-        keyPoints.fromList(new ArrayList<>());
-        float[] harrisData = new float[(int) harrisOutput.total()];
-        harrisOutput.get(0, 0, harrisData);
+    /**
+     * Maps keypoints found in {@code searched} (the region, possibly
+     * downscaled) to image coordinates: scaled up to the region's full
+     * resolution, corners refined there, then offset by the region's origin.
+     */
+    private static void toImageCoordinates(MatOfKeyPoint keyPoints, Rect region, Mat grayRegion, Mat searched,
+                                           boolean corners) {
+        boolean scaled = searched != grayRegion;
+        int count = (int) keyPoints.total();
+        if (count == 0 || (!scaled && region.x == 0 && region.y == 0)) {
+            return;
+        }
 
-        List<KeyPoint> points = new ArrayList<>();
-        for (int y = 0; y < harrisOutput.rows(); y++) {
-            for (int x = 0; x < harrisOutput.cols(); x++) {
-                if (harrisData[y * harrisOutput.cols() + x] > 100) {
-                    points.add(new KeyPoint(x, y, 3));
-                }
+        float[] raw = new float[count * 7];
+        keyPoints.get(0, 0, raw);
+        if (scaled) {
+            double sx = (double) grayRegion.cols() / searched.cols();
+            double sy = (double) grayRegion.rows() / searched.rows();
+            for (int i = 0; i < count; i++) {
+                // Pixel centres, not corners, line up between the two scales
+                raw[i * 7] = (float) ((raw[i * 7] + 0.5) * sx - 0.5);
+                raw[i * 7 + 1] = (float) ((raw[i * 7 + 1] + 0.5) * sy - 0.5);
+                raw[i * 7 + 2] = (float) (raw[i * 7 + 2] * sx);
+            }
+            if (corners) {
+                refineCorners(grayRegion, raw, count, Math.max(sx, sy));
             }
         }
-        keyPoints.fromList(points);
+        for (int i = 0; i < count; i++) {
+            raw[i * 7] += region.x;
+            raw[i * 7 + 1] += region.y;
+        }
+        putRaw(keyPoints, raw, count);
+    }
+
+    // cornerSubPix reads only a window around each point, about one coarse
+    // pixel in radius, so the cost is per keypoint rather than per pixel.
+    private static void refineCorners(Mat grayRegion, float[] raw, int count, double scale) {
+        int halfWindow = Math.max(2, (int) Math.ceil(scale));
+        if (grayRegion.cols() < halfWindow * 2 + 5 || grayRegion.rows() < halfWindow * 2 + 5) {
+            // Smaller than cornerSubPix's window; the scaled positions stand
+            return;
+        }
+        float[] xy = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            xy[i * 2] = Math.clamp(raw[i * 7], 0f, grayRegion.cols() - 1);
+            xy[i * 2 + 1] = Math.clamp(raw[i * 7 + 1], 0f, grayRegion.rows() - 1);
+        }
+        MatOfPoint2f points = new MatOfPoint2f();
+        points.create(count, 1, CvType.CV_32FC2);
+        points.put(0, 0, xy);
+        Imgproc.cornerSubPix(grayRegion, points, new Size(halfWindow, halfWindow), new Size(-1, -1),
+                REFINE_CRITERIA);
+        points.get(0, 0, xy);
+        points.release();
+        for (int i = 0; i < count; i++) {
+            raw[i * 7] = xy[i * 2];
+            raw[i * 7 + 1] = xy[i * 2 + 1];
+        }
+    }
+
+    /**
+     * Keeps Harris responses above the threshold that are also the maximum of
+     * their 3x3 neighbourhood, and inside the mask when there is one.
+     * Thresholding, non-maximum suppression and candidate extraction all run
+     * natively; Java only sees the surviving coordinates as primitive arrays.
+     */
+    private void convertHarrisToKeyPoints(Mat harrisOutput, Mat mask, MatOfKeyPoint keyPoints) {
+        try (MatScope scope = new MatScope()) {
+            Mat dilated = scope.newMat();
+            Imgproc.dilate(harrisOutput, dilated, scope.newMat());
+            Mat localMax = scope.newMat();
+            Core.compare(harrisOutput, dilated, localMax, Core.CMP_GE);
+
+            Mat strong = scope.newMat();
+            Core.compare(harrisOutput, new Scalar(HARRIS_THRESHOLD), strong, Core.CMP_GT);
+            Core.bitwise_and(localMax, strong, localMax);
+            if (!mask.empty()) {
+                Core.bitwise_and(localMax, mask, localMax);
+            }
+
+            MatOfPoint locations = scope.track(new MatOfPoint());
+            Core.findNonZero(localMax, locations);
+            int count = (int) locations.total();
+            int[] xy = new int[count * 2];
+            if (count > 0) {
+                locations.get(0, 0, xy);
+            }
+
+            float[] raw = new float[count * 7];
+            float[] response = new float[1];
+            for (int i = 0; i < count; i++) {
+                int x = xy[i * 2];
+                int y = xy[i * 2 + 1];
+                harrisOutput.get(y, x, response);
+                raw[i * 7] = x;
+                raw[i * 7 + 1] = y;
+                raw[i * 7 + 2] = 3;
+                raw[i * 7 + 3] = -1;
+                raw[i * 7 + 4] = response[0];
+                raw[i * 7 + 5] = 0;
+                raw[i * 7 + 6] = -1;
+            }
+            putRaw(keyPoints, raw, count);
+        }
+    }
+
+    // The smaller of the request's and the service-wide cap, where 0 means
+    // no cap; with neither set every detected keypoint is returned
+    private int keypointLimit(DetectorParams params) {
+        int requested = params.maxKeypoints();
+        if (requested > 0 && maxKeypoints > 0) {
+            return Math.min(requested, maxKeypoints);
+        }
+        return requested > 0 ? requested : (maxKeypoints > 0 ? maxKeypoints : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Keeps the {@code limit} strongest keypoints. Candidates are ranked by
+     * sorting primitive (response, index) pairs, so no KeyPoint objects are
+     * created however many points the detector returned.
+     */
+    private void retainStrongest(MatOfKeyPoint keyPoints, int limit) {
+        int count = (int) keyPoints.total();
+        if (count <= limit) {
+            return;
+        }
+
+        float[] raw = new float[count * 7];
+        keyPoints.get(0, 0, raw);
+
+        // Sorting -response as an int-ordered key puts the strongest first;
+        // the low 32 bits carry the keypoint index along.
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) sortableBits(-raw[i * 7 + 4]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        float[] kept = new float[limit * 7];
+        for (int i = 0; i < limit; i++) {
+            int index = (int) order[i];
+            System.arraycopy(raw, index * 7, kept, i * 7, 7);
+        }
+        putRaw(keyPoints, kept, limit);
+    }
+
+    // Maps a float to an int whose signed ordering matches the float ordering.
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits >= 0 ? bits : bits ^ Integer.MAX_VALUE;
+    }
+
+    private static void putRaw(MatOfKeyPoint keyPoints, float[] raw, int count) {
+        if (count == 0) {
+            keyPoints.release();
+            return;
+        }
+        keyPoints.create(count, 1, CvType.CV_32FC(7));
+        keyPoints.put(0, 0, raw);
     }
-}
\ No newline at end of file
+}
@@ -1,90 +1,238 @@
 package com.example.demo;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Service
 public class FileStorageService {
 
+    private static final Logger log = LoggerFactory.getLogger(FileStorageService.class);
+
     private static final List<String> ALLOWED_EXTENSIONS = List.of("jpg", "jpeg", "png");
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
-    private final String uploadDir;
+    private final ImageStore imageStore;
+    private final long maxPixels;
+    private final ImageCache imageCache;
+    private final ResultCache resultCache;
+    private final StorageIndex storageIndex;
+    private final int maxDeletesPerRun;
+    private final Timer transferTimer;
+    private final DistributionSummary uploadBytes;
+    private final Timer cleanupTimer;
+    private final Counter deletedFiles;
 
-    public FileStorageService(@Value("${upload.dir}") String uploadDir) {
-        this.uploadDir = uploadDir;
+    public FileStorageService(
+            ImageStore imageStore,
+            @Value("${upload.max-pixels:40000000}") long maxPixels,
+            ImageCache imageCache,
+            ResultCache resultCache,
+            StorageIndex storageIndex,
+            @Value("${storage.cleanup.max-deletes:500}") int maxDeletesPerRun,
+            MeterRegistry meterRegistry
+    ) {
+        this.imageStore = imageStore;
+        this.maxPixels = maxPixels;
+        this.imageCache = imageCache;
+        this.resultCache = resultCache;
+        this.storageIndex = storageIndex;
+        this.maxDeletesPerRun = maxDeletesPerRun;
+        this.transferTimer = Timer.builder("image.upload.transfer")
+                .description("Time to read a multipart upload into memory")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.uploadBytes = DistributionSummary.builder("image.upload.size")
+                .description("Size of each uploaded file")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.cleanupTimer = Timer.builder("storage.cleanup")
+                .description("Time for one pass of the upload directory cleanup")
+                .register(meterRegistry);
+        this.deletedFiles = Counter.builder("storage.cleanup.deleted")
+                .description("Files removed by the upload directory cleanup")
+                .register(meterRegistry);
     }
 
     public String storeImage(MultipartFile file) throws IOException, FileValidationException {
         validateFile(file);
-        Path uploadPath = Paths.get(uploadDir).toAbsolutePath().normalize();
-        Files.createDirectories(uploadPath);
+        byte[] data = transfer(file);
+        String filename = StorageLayout.contentName(data, extension(file.getOriginalFilename()));
+
+        // Identical bytes were already validated and stored under this name
+        if (imageStore.exists(filename)) {
+            imageStore.touch(filename);
+            storageIndex.touch(filename, data.length, System.currentTimeMillis());
+            return filename;
+        }
 
-        String filename = System.currentTimeMillis() + "_" + file.getOriginalFilename();
-        Path filePath = uploadPath.resolve(filename);
-        file.transferTo(filePath);
-        validateImageContent(filePath);
+        Mat image = decodeContent(data);
+        try {
+            imageStore.put(filename, data);
+        } catch (IOException e) {
+            image.release();
+            throw e;
+        }
+        storageIndex.add(filename, data.length, List.of(), System.currentTimeMillis());
 
+        // The upload was decoded once to validate it; keep that decode for
+        // the first processing call instead of reading the file back.
+        imageCache.put(filename, image);
+        imageCache.getPreview(filename).release();
         return filename;
     }
 
+    /**
+     * Validates and decodes an upload straight from the multipart bytes,
+     * without writing it to the upload directory.
+     */
+    public Mat decodeImage(MultipartFile file) throws IOException, FileValidationException {
+        validateFile(file);
+        return decodeContent(transfer(file));
+    }
+
+    /**
+     * Validates and decodes an image that arrived inside another upload,
+     * such as an entry of a batch zip, under the same rules as a multipart file.
+     */
+    public Mat decodeImage(String fileName, byte[] data) throws FileValidationException {
+        if (data.length > MAX_FILE_SIZE) {
+            throw new FileValidationException("File size exceeds 10MB limit");
+        }
+        validateName(fileName);
+        return decodeContent(data);
+    }
+
+    private byte[] transfer(MultipartFile file) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = file.getBytes();
+        transferTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        uploadBytes.record(data.length);
+        return data;
+    }
+
     private void validateFile(MultipartFile file) throws FileValidationException {
         if (file.getSize() > MAX_FILE_SIZE) {
             throw new FileValidationException("File size exceeds 10MB limit");
         }
+        validateName(file.getOriginalFilename());
+    }
 
-        String fileName = file.getOriginalFilename();
+    private void validateName(String fileName) throws FileValidationException {
         if (fileName == null) {
             throw new FileValidationException("Invalid file name");
         }
 
-        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        String extension = extension(fileName);
         if (!ALLOWED_EXTENSIONS.contains(extension)) {
             throw new FileValidationException("Only JPG, JPEG, PNG files are allowed");
         }
     }
 
-    private void validateImageContent(Path filePath) throws IOException, FileValidationException {
-        Mat image = Imgcodecs.imread(filePath.toString());
-        if (image == null || image.empty()) {
-            Files.deleteIfExists(filePath);
+    private static String extension(String fileName) {
+        return fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+    }
+
+    private Mat decodeContent(byte[] data) throws FileValidationException {
+        ImageHeader header = ImageHeader.read(data);
+        if (header.pixels() > maxPixels) {
+            throw new FileValidationException("Image dimensions " + header.width() + "x" + header.height()
+                    + " exceed the " + maxPixels + " pixel limit");
+        }
+
+        try {
+            return ImageUtils.decodeImage(data);
+        } catch (IllegalArgumentException e) {
             throw new FileValidationException("Invalid image file");
         }
-        image.release();
     }
 
-    @Scheduled(fixedRate = 30 * 60 * 1000)
+    /**
+     * Writes a processed result to the image store in the given format and
+     * indexes it as derived from {@code sources}.
+     */
+    public String saveProcessedImage(Mat image, String prefix, List<String> sources, OutputFormat format) {
+        String filename = StorageLayout.uniqueName(prefix, format.extension());
+        byte[] data = ImageUtils.encodeImage(image, format);
+        try {
+            imageStore.put(filename, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store " + filename, e);
+        }
+        // Before indexing, so the index's use is never older than the store's
+        sources.forEach(imageStore::touch);
+        storageIndex.add(filename, data.length, sources, System.currentTimeMillis());
+        return filename;
+    }
+
+    /**
+     * Records a read of a stored file that bypasses the caches, such as a
+     * download, as a use of it and its ancestors.
+     */
+    public void markRead(String filename) {
+        imageStore.touch(filename);
+        storageIndex.markRead(filename, System.currentTimeMillis());
+    }
+
+    /**
+     * Indexes files left in the store by a previous run, oldest first, with
+     * their modification time as their last use. This is the only time the
+     * store is listed.
+     */
+    @PostConstruct
+    public void indexExisting() throws IOException {
+        List<ImageStore.StoredFile> files = imageStore.list().stream()
+                .sorted(Comparator.comparingLong(ImageStore.StoredFile::lastModified))
+                .toList();
+        for (ImageStore.StoredFile file : files) {
+            storageIndex.add(file.name(), file.size(), List.of(), file.lastModified());
+        }
+        log.info("Indexed {} existing files", files.size());
+    }
+
+    /**
+     * Deletes files the index reports as expired or over the disk quota,
+     * at most storage.cleanup.max-deletes per run so a large backlog is
+     * worked off over several runs instead of in one burst.
+     */
+    @Scheduled(fixedDelayString = "${storage.cleanup.interval-millis:60000}")
     public void autoDelete() {
-        File dir = new File(uploadDir);
-        long currTime = System.currentTimeMillis();
-        long threshold = currTime - TimeUnit.MINUTES.toMillis(15);
-
-        if (dir.exists() && dir.isDirectory()) {
-            File[] files = dir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.lastModified() < threshold) {
-                        if (file.delete()) {
-                            System.out.println("Deleted file: " + file.getName());
-                        } else {
-                            System.out.println("Failed to delete file: " + file.getName());
-                        }
-                    }
-                }
+        cleanupTimer.record(this::deleteEvicted);
+    }
+
+    private void deleteEvicted() {
+        for (StorageIndex.Evicted evicted : storageIndex.evict(System.currentTimeMillis(), maxDeletesPerRun)) {
+            String filename = evicted.filename();
+            // With a shared store, another node may have used the file since
+            // this one last did; keep it and start its clock from that use.
+            long lastModified = imageStore.lastModified(filename);
+            if (lastModified > evicted.lastUsed()) {
+                storageIndex.touch(filename, evicted.size(), lastModified);
+                continue;
+            }
+            try {
+                imageStore.delete(filename);
+                deletedFiles.increment();
+            } catch (IOException e) {
+                log.warn("Failed to delete file: {}", filename, e);
             }
-        } else {
-            System.out.println("Directory not found or is not a valid directory: " + uploadDir);
+            imageCache.invalidate(filename);
+            resultCache.invalidate(filename);
         }
     }
-}
\ No newline at end of file
+}
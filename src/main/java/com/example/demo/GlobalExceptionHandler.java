@@ -1,5 +1,7 @@
 package com.example.demo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -14,9 +16,33 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
     }
 
+    // Unknown images and jobs, bad parameters and unparseable numbers
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleIllegalArgument(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", message(e)));
+    }
+
+    // JSON bodies are read as untyped maps, so a missing or mistyped field
+    // surfaces as one of these rather than as a binding error
+    @ExceptionHandler({NullPointerException.class, ClassCastException.class, JsonProcessingException.class})
+    public ResponseEntity<?> handleMalformedRequest(Exception e) {
+        return ResponseEntity.badRequest().body(Map.of("error", "Malformed request: " + message(e)));
+    }
+
     @ExceptionHandler(MultipartException.class)
     public ResponseEntity<?> handleMultipartError(MultipartException e) {
         return ResponseEntity.badRequest()
                 .body(Map.of("error", "File upload error: " + e.getMessage()));
     }
-}
\ No newline at end of file
+
+    @ExceptionHandler(ComputeBusyException.class)
+    public ResponseEntity<?> handleComputeBusy(ComputeBusyException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    // Map.of rejects null values
+    private static String message(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded images by stored name. Stored names are never rewritten with
+ * different content, so an entry stays valid until the file is deleted,
+ * which invalidates it.
+ */
+@Component
+public class ImageCache implements MeterBinder {
+
+    private final ImageStore imageStore;
+    private final StorageIndex storageIndex;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final int previewMaxDimension;
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ImageCache(
+            ImageStore imageStore,
+            StorageIndex storageIndex,
+            @Value("${image.cache.max-bytes:268435456}") long maxBytes,
+            @Value("${image.cache.max-entries:64}") int maxEntries,
+            @Value("${image.preview.max-dimension:1024}") int previewMaxDimension
+    ) {
+        this.imageStore = imageStore;
+        this.storageIndex = storageIndex;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.previewMaxDimension = previewMaxDimension;
+    }
+
+    /**
+     * Returns a decoded BGR copy of the stored image. The caller owns the
+     * returned Mat and may modify or release it.
+     */
+    public Mat get(String filename) {
+        markRead(filename);
+        Mat cached = lookup(filename);
+        if (cached != null) {
+            return cached;
+        }
+
+        return cacheAndCopy(filename, ImageUtils.readImage(localPath(filename)));
+    }
+
+    /**
+     * Returns a copy of the image's low-resolution proxy, built with pyrDown
+     * until neither side exceeds image.preview.max-dimension. Slider
+     * previews run on this instead of the full-resolution image.
+     */
+    public Mat getPreview(String filename) {
+        String key = previewKey(filename);
+        markRead(filename);
+        Mat cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        return cacheAndCopy(key, buildPreview(get(filename)));
+    }
+
+    /**
+     * Returns a copy of the image resized to {@code width} x {@code height},
+     * cached under that geometry. A fusion layer is decoded and resized once
+     * per base image, so dragging the blend slider only re-runs the blend.
+     */
+    public Mat getResized(String filename, int width, int height) {
+        String key = filename + "#" + width + "x" + height;
+        markRead(filename);
+        Mat cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Mat image = get(filename);
+        if (image.cols() == width && image.rows() == height) {
+            return image;
+        }
+        Imgproc.resize(image, image, new Size(width, height));
+        return cacheAndCopy(key, image);
+    }
+
+    // A cache hit is still a use of the file: without this, an image a user
+    // keeps adjusting would expire while every request is served from memory
+    private void markRead(String filename) {
+        imageStore.touch(filename);
+        storageIndex.markRead(filename, System.currentTimeMillis());
+    }
+
+    /**
+     * Caches an image that was already decoded from {@code filename}'s bytes.
+     * Takes ownership of {@code image}.
+     */
+    public void put(String filename, Mat image) {
+        if (!cache(filename, image)) {
+            image.release();
+        }
+    }
+
+    // Drops the image with its preview and resized variants, all keyed "filename#..."
+    public synchronized void invalidate(String filename) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getKey().equals(filename) || entry.getKey().startsWith(filename + "#")) {
+                it.remove();
+                release(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("image.cache.gets", hits, AtomicLong::get)
+                .description("Decoded image lookups")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("image.cache.gets", misses, AtomicLong::get)
+                .description("Decoded image lookups")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("image.cache.evictions", evictions, AtomicLong::get)
+                .description("Decoded images dropped to stay under the cache bounds")
+                .register(registry);
+        Gauge.builder("image.cache.entries", this, ImageCache::entryCount)
+                .description("Decoded images and previews held in the cache")
+                .register(registry);
+        Gauge.builder("image.cache.bytes", this, ImageCache::currentBytes)
+                .description("Native bytes held by cached decoded images")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private synchronized double entryCount() {
+        return entries.size();
+    }
+
+    private synchronized double currentBytes() {
+        return currentBytes;
+    }
+
+    private synchronized Mat lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.image.clone();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Takes ownership of full and returns a new, smaller Mat (or full itself
+    // when it is already within the preview size).
+    private Mat buildPreview(Mat full) {
+        Mat current = full;
+        while (Math.max(current.cols(), current.rows()) > previewMaxDimension) {
+            Mat smaller = new Mat();
+            Imgproc.pyrDown(current, smaller);
+            current.release();
+            current = smaller;
+        }
+        return current;
+    }
+
+    private static String previewKey(String filename) {
+        return filename + "#preview";
+    }
+
+    // With a shared store, this fetches the file to the node's local copy first
+    private String localPath(String filename) {
+        try {
+            return imageStore.localPath(filename).toString();
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("File not found: " + filename);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read " + filename + ": " + e.getMessage());
+        }
+    }
+
+    // Caches image, taking ownership of it, and returns the caller's copy.
+    // The clone is made before the monitor is released: once it is, another
+    // thread's cache() or invalidate() may evict and release the cached Mat.
+    // An image too large to cache is handed back itself.
+    private synchronized Mat cacheAndCopy(String key, Mat image) {
+        return cache(key, image) ? image.clone() : image;
+    }
+
+    private synchronized boolean cache(String filename, Mat image) {
+        long size = sizeOf(image);
+        if (size > maxBytes || maxEntries < 1) {
+            return false;
+        }
+
+        Entry previous = entries.put(filename, new Entry(image, size));
+        if (previous != null) {
+            release(previous);
+        }
+        currentBytes += size;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while ((currentBytes > maxBytes || entries.size() > maxEntries) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            release(eldest);
+            evictions.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void release(Entry entry) {
+        currentBytes -= entry.size;
+        entry.image.release();
+    }
+
+    static long sizeOf(Mat image) {
+        return image.total() * image.elemSize();
+    }
+
+    private record Entry(Mat image, long size) {
+    }
+}
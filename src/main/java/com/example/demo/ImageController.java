@@ -1,20 +1,21 @@
 package com.example.demo;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
+import org.opencv.core.MatOfKeyPoint;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 
 @RestController
@@ -24,18 +25,39 @@ public class ImageController {
     private final FileStorageService fileStorageService;
     private final ImageProcessingService imageProcessingService;
     private final FeatureDetectionService featureDetectionService;
-    private final String uploadDir;
+    private final ImagePipelineService imagePipelineService;
+    private final ImageCache imageCache;
+    private final ResultCache resultCache;
+    private final ComputeExecutor computeExecutor;
+    private final OutputFormats outputFormats;
+    private final DownloadService downloadService;
+    private final ObjectMapper objectMapper;
+    private final ImageStore imageStore;
 
     public ImageController(
             FileStorageService fileStorageService,
             ImageProcessingService imageProcessingService,
             FeatureDetectionService featureDetectionService,
-            @Value("${upload.dir}") String uploadDir
+            ImagePipelineService imagePipelineService,
+            ImageCache imageCache,
+            ResultCache resultCache,
+            ComputeExecutor computeExecutor,
+            OutputFormats outputFormats,
+            DownloadService downloadService,
+            ObjectMapper objectMapper,
+            ImageStore imageStore
     ) {
         this.fileStorageService = fileStorageService;
         this.imageProcessingService = imageProcessingService;
         this.featureDetectionService = featureDetectionService;
-        this.uploadDir = uploadDir;
+        this.imagePipelineService = imagePipelineService;
+        this.imageCache = imageCache;
+        this.resultCache = resultCache;
+        this.computeExecutor = computeExecutor;
+        this.outputFormats = outputFormats;
+        this.downloadService = downloadService;
+        this.objectMapper = objectMapper;
+        this.imageStore = imageStore;
     }
 
     @PostMapping("/upload")
@@ -62,162 +84,376 @@ public class ImageController {
     }
 
     @PostMapping("/adjust-brightness")
-    public ResponseEntity<?> adjustBrightness(@RequestBody Map<String, Object> body) {
-        try {
+    public ResponseEntity<?> adjustBrightness(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             float value = Float.parseFloat(body.get("value").toString());
             String currentImage = body.get("currentImage").toString();
+            boolean preview = preview(body);
 
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = imageProcessingService.adjustBrightness(image, value);
+            String key = ResultCache.key("brightness", Map.of(
+                    "source", currentImage, "value", value, "preview", preview));
+            OutputFormat format = outputFormats.forRequest(body, "brightness");
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
 
-            String processedFilename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    "brightness",
-                    uploadDir
-            );
+            Mat image = scope.track(load(currentImage, preview));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.adjustBrightness(image, value)));
 
-            return ResponseEntity.ok(Map.of("processedImage", processedFilename));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            return processedResponse(body, processedImage, "brightness", key, List.of(currentImage), format);
         }
     }
 
     @PostMapping("/grb2gray")
-    public ResponseEntity<?> convertToGrayscale(@RequestBody Map<String,Object> body){
-        try {
+    public ResponseEntity<?> convertToGrayscale(@RequestBody Map<String,Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String currentImage = body.get("currentImage").toString();
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = imageProcessingService.convertToGrayscale(image);
 
-            String processedFilename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    "grey",
-                    uploadDir
-            );
+            String key = ResultCache.key("grey", Map.of("source", currentImage));
+            OutputFormat format = outputFormats.forRequest(body, "grey");
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
 
-            return ResponseEntity.ok(Map.of("processedImage",processedFilename));
-        } catch ( Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            Mat image = scope.track(imageCache.get(currentImage));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.convertToGrayscale(image)));
+
+            return processedResponse(body, processedImage, "grey", key, List.of(currentImage), format);
         }
     }
 
     @PostMapping("/prewitt")
-    public ResponseEntity<?> applyPrewittEdgeDetection(@RequestBody Map<String,Object> body){
-        try {
+    public ResponseEntity<?> applyPrewittEdgeDetection(@RequestBody Map<String,Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String currentImage = body.get("currentImage").toString();
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = imageProcessingService.applyPrewitt(image);
 
-            String processedFilename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    "prewitt",
-                    uploadDir);
+            String key = ResultCache.key("prewitt", Map.of("source", currentImage));
+            OutputFormat format = outputFormats.forRequest(body, "prewitt");
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
 
-            return ResponseEntity.ok(Map.of("processedImage",processedFilename));
-        } catch (Exception e){
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            Mat image = scope.track(imageCache.get(currentImage));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.applyPrewitt(image)));
+
+            return processedResponse(body, processedImage, "prewitt", key, List.of(currentImage), format);
         }
     }
 
     @PostMapping("/adjust-channel")
-    public ResponseEntity<?> adjustColorChannel(@RequestBody Map<String, Object> body) {
-        try {
+    public ResponseEntity<?> adjustColorChannel(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String channel = body.get("channel").toString();
             float value = Float.parseFloat(body.get("value").toString());
             String currentImage = body.get("currentImage").toString();
+            boolean preview = preview(body);
 
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = imageProcessingService.adjustColorChannel(image, channel, value);
+            String key = ResultCache.key("channel", Map.of("source", currentImage,
+                    "channel", channel.toLowerCase(), "value", value, "preview", preview));
+            OutputFormat format = outputFormats.forRequest(body, channel);
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
 
-            String filename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    channel,
-                    uploadDir);
+            Mat image = scope.track(load(currentImage, preview));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.adjustColorChannel(image, channel, value)));
 
-            return ResponseEntity.ok(Map.of("processedImage", filename));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            return processedResponse(body, processedImage, channel, key, List.of(currentImage), format);
         }
     }
 
     @PostMapping("/apply-filter")
-    public ResponseEntity<?> applyFilter(@RequestBody Map<String, Object> body) {
-        try {
+    public ResponseEntity<?> applyFilter(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String filterType = body.get("filterType").toString();
             String currentImage = body.get("currentImage").toString();
-
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = imageProcessingService.applyFilter(image, filterType);
-
-            String filename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    "filter_" + filterType,
-                    uploadDir
-            );
-
-            return ResponseEntity.ok(Map.of("processedImage", filename));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            int kernelSize = body.containsKey("kernelSize") ? Integer.parseInt(body.get("kernelSize").toString()) : 0;
+            boolean normalize = Boolean.parseBoolean(String.valueOf(body.get("normalize")));
+
+            String key = ResultCache.key("filter", Map.of("source", currentImage,
+                    "filterType", filterType.toLowerCase(), "kernelSize", kernelSize, "normalize", normalize));
+            OutputFormat format = outputFormats.forRequest(body, "filter_" + filterType);
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
+
+            Mat image = scope.track(imageCache.get(currentImage));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.applyFilter(image, filterType, kernelSize, normalize)));
+
+            return processedResponse(body, processedImage, "filter_" + filterType, key,
+                    List.of(currentImage), format);
         }
     }
 
     @PostMapping("/detect-features")
-    public ResponseEntity<?> detectFeatures(@RequestBody Map<String, Object> body) {
-        try {
+    public ResponseEntity<?> detectFeatures(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String detectorType = body.get("detectorType").toString();
             String currentImage = body.get("currentImage").toString();
-
-            Mat image = ImageUtils.readImage(uploadDir + currentImage);
-            Mat processedImage = featureDetectionService.detectFeatures(image, detectorType);
-
-            String filename = ImageUtils.saveProcessedImage(
-                    processedImage,
-                    "features_" + detectorType,
-                    uploadDir
-            );
-
-            return ResponseEntity.ok(Map.of("processedImage", filename));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            String output = body.getOrDefault("output", "image").toString();
+            DetectorParams params = DetectorParams.from(body);
+
+            Mat image = scope.track(imageCache.get(currentImage));
+
+            // Keypoint-only modes skip drawKeypoints and the image encode entirely
+            if (output.equals("keypoints") || output.equals("binary")) {
+                MatOfKeyPoint keyPoints = scope.track(computeExecutor.execute(() ->
+                        featureDetectionService.detectKeyPoints(image, detectorType, params)));
+                return keyPointsResponse(FeatureDetectionService.toCompactArray(keyPoints), output);
+            }
+
+            String key = ResultCache.key("features", Map.of("source", currentImage,
+                    "detectorType", detectorType.toLowerCase(), "params", params));
+            OutputFormat format = outputFormats.forRequest(body, "features_" + detectorType);
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
+
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    featureDetectionService.detectFeatures(image, detectorType, params)));
+
+            return processedResponse(body, processedImage, "features_" + detectorType, key,
+                    List.of(currentImage), format);
         }
     }
 
     @PostMapping("/image-fusion")
-    public ResponseEntity<?> blendImages(@RequestBody Map<String, Object> body) {
-        try {
+    public ResponseEntity<?> blendImages(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
             String currentImage = body.get("currentImage").toString();
             String secondImage = body.get("secondImage").toString();
             float blendValue = Float.parseFloat(body.get("blendValue").toString());
+            boolean preview = preview(body);
+
+            String key = ResultCache.key("fusion", Map.of("source", currentImage,
+                    "secondImage", secondImage, "blendValue", blendValue, "preview", preview));
+            OutputFormat format = outputFormats.forRequest(body, "fused");
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
+
+            // The second image comes from the cache already at the first's geometry
+            Mat image1 = scope.track(load(currentImage, preview));
+            Mat image2 = scope.track(imageCache.getResized(secondImage, image1.cols(), image1.rows()));
+            Mat blendedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.blendImages(image1, image2, blendValue)));
+
+            return processedResponse(body, blendedImage, "fused", key, List.of(currentImage, secondImage), format);
+        }
+    }
 
-            Mat image1 = ImageUtils.readImage(uploadDir + currentImage);
-            Mat image2 = ImageUtils.readImage(uploadDir + secondImage);
-            Imgproc.resize(image2, image2, new Size(image1.cols(), image1.rows()));
-            Mat blendedImage = imageProcessingService.blendImages(image1, image2, blendValue);
+    // {"currentImage": ..., "currentWeight": 0.5, "layers": [{"image": ..., "weight": 0.25}, ...]}
+    // currentWeight defaults to whatever the layer weights leave of 1.
+    @PostMapping("/image-fusion/layers")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> blendLayers(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
+            String currentImage = body.get("currentImage").toString();
+            List<Map<String, Object>> layers = (List<Map<String, Object>>) body.get("layers");
+            if (layers == null || layers.isEmpty()) {
+                throw new IllegalArgumentException("Fusion requires at least one layer");
+            }
+            boolean preview = preview(body);
+
+            List<String> sources = new ArrayList<>(List.of(currentImage));
+            List<Float> weights = new ArrayList<>();
+            weights.add(0f);
+            float layerTotal = 0;
+            for (Map<String, Object> layer : layers) {
+                sources.add(layer.get("image").toString());
+                float weight = Float.parseFloat(layer.get("weight").toString());
+                weights.add(weight);
+                layerTotal += weight;
+            }
+            weights.set(0, body.containsKey("currentWeight")
+                    ? Float.parseFloat(body.get("currentWeight").toString())
+                    : 1 - layerTotal);
+
+            String key = ResultCache.key("fusion-layers", Map.of("sources", sources,
+                    "weights", weights, "preview", preview));
+            OutputFormat format = outputFormats.forRequest(body, "fused");
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
+
+            Mat base = scope.track(load(currentImage, preview));
+            List<Mat> images = new ArrayList<>(List.of(base));
+            for (String layer : sources.subList(1, sources.size())) {
+                images.add(scope.track(imageCache.getResized(layer, base.cols(), base.rows())));
+            }
+            Mat blendedImage = scope.track(computeExecutor.execute(() ->
+                    imageProcessingService.blendLayers(images, weights)));
+
+            return processedResponse(body, blendedImage, "fused", key, sources, format);
+        }
+    }
 
-            String processedFilename = ImageUtils.saveProcessedImage(
-                    blendedImage,
-                    "fused",
-                    uploadDir);
+    @PostMapping("/pipeline")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> runPipeline(@RequestBody Map<String, Object> body) throws Exception {
+        try (MatScope scope = new MatScope()) {
+            String currentImage = body.get("currentImage").toString();
+            List<Map<String, Object>> operations = (List<Map<String, Object>>) body.get("operations");
+            if (operations == null) {
+                throw new IllegalArgumentException("Pipeline requires at least one operation");
+            }
+
+            String key = ResultCache.key("pipeline", Map.of("source", currentImage,
+                    "operations", operations.stream().map(TreeMap::new).toList()));
+            OutputFormat format = outputFormats.forPipeline(body, operations);
+            ResponseEntity<?> cached = cachedResponse(body, key, format);
+            if (cached != null) {
+                return cached;
+            }
+
+            Mat image = scope.track(imageCache.get(currentImage));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imagePipelineService.run(image, operations)));
+
+            return processedResponse(body, processedImage, "pipeline", key,
+                    imagePipelineService.sources(currentImage, operations), format);
+        }
+    }
 
-            return ResponseEntity.ok(Map.of("processedImage", processedFilename));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    @PostMapping(value = "/pipeline/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> streamPipeline(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("operations") String operationsJson,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "quality", required = false) Integer quality
+    ) throws Exception {
+        try (MatScope scope = new MatScope()) {
+            List<Map<String, Object>> operations = objectMapper.readValue(operationsJson, new TypeReference<>() {});
+            Map<String, Object> encoding = new HashMap<>();
+            encoding.put("format", format);
+            encoding.put("quality", quality);
+            OutputFormat outputFormat = outputFormats.forPipeline(encoding, operations);
+
+            Mat image = scope.track(fileStorageService.decodeImage(file));
+            Mat processedImage = scope.track(computeExecutor.execute(() ->
+                    imagePipelineService.run(image, operations)));
+
+            return ResponseEntity.ok()
+                    .contentType(outputFormat.mediaType())
+                    .body(ImageUtils.encodeImage(processedImage, outputFormat));
         }
     }
 
-    @GetMapping("/download/{filename}")
-    @ResponseBody
-    public ResponseEntity<Resource> downloadProcessedImage(@PathVariable String filename) {
+    // Filenames are sharded paths such as "3f/a2/3fa2....jpg", so the
+    // variable captures the rest of the URL.
+    @GetMapping("/download/{*filename}")
+    public void downloadProcessedImage(
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        serveStored(filename, true, request, response);
+    }
+
+    // Inline, for <img src>. Served from the image store rather than as a
+    // static resource, so with a shared store every node can serve every file.
+    @GetMapping("/processed/{*filename}")
+    public void viewProcessedImage(
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        serveStored(filename, false, request, response);
+    }
+
+    private void serveStored(String filename, boolean attachment, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        String name = filename.substring(1);
+        Path filePath;
         try {
-            Path filePath = Paths.get(uploadDir + filename);
-            Resource resource = new UrlResource(filePath.toUri());
+            filePath = imageStore.localPath(name);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        fileStorageService.markRead(name);
+        downloadService.serve(filePath, attachment, request, response);
+    }
 
+    // Returns the memoized result of an identical earlier request, or null.
+    private ResponseEntity<?> cachedResponse(Map<String, Object> body, String key, OutputFormat format) {
+        key = key + "@" + format.token();
+        if (!persist(body)) {
+            byte[] bytes = resultCache.findBytes(key);
+            return bytes == null ? null : ResponseEntity.ok().contentType(format.mediaType()).body(bytes);
+        }
+        String filename = resultCache.findFile(key);
+        return filename == null ? null : ResponseEntity.ok(Map.of("processedImage", filename));
+    }
+
+    // Persists the result and returns its filename, or with "persist": false
+    // streams the encoded bytes back without touching the image store.
+    // Either way the result is memoized under key and its encoding for its
+    // source images.
+    private ResponseEntity<?> processedResponse(
+            Map<String, Object> body, Mat processedImage, String prefix, String key, List<String> sources,
+            OutputFormat format) {
+        key = key + "@" + format.token();
+        if (!persist(body)) {
+            byte[] bytes = ImageUtils.encodeImage(processedImage, format);
+            resultCache.putBytes(key, bytes, sources);
+            return ResponseEntity.ok()
+                    .contentType(format.mediaType())
+                    .body(bytes);
+        }
+
+        String filename = fileStorageService.saveProcessedImage(processedImage, prefix, sources, format);
+        resultCache.putFile(key, filename, sources);
+        return ResponseEntity.ok(Map.of("processedImage", filename));
+    }
+
+    private boolean persist(Map<String, Object> body) {
+        Object persist = body.get("persist");
+        return !preview(body) && (persist == null || Boolean.parseBoolean(persist.toString()));
+    }
+
+    // "preview": true runs on the low-resolution proxy and always streams the
+    // result; the final full-resolution call is made without it.
+    private boolean preview(Map<String, Object> body) {
+        return Boolean.parseBoolean(String.valueOf(body.get("preview")));
+    }
+
+    private Mat load(String filename, boolean preview) {
+        return preview ? imageCache.getPreview(filename) : imageCache.get(filename);
+    }
+
+    // "keypoints": JSON rows of [x, y, size, response, angle]
+    // "binary": the same five values per keypoint as little-endian float32
+    private ResponseEntity<?> keyPointsResponse(float[] packed, String output) {
+        if (output.equals("binary")) {
+            ByteBuffer buffer = ByteBuffer.allocate(packed.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(packed);
             return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
-        } catch (IOException e) {
-            return ResponseEntity.status(500).body(null);
+                    .header("X-Keypoint-Count", String.valueOf(packed.length / 5))
+                    .body(buffer.array());
+        }
+
+        List<float[]> rows = new ArrayList<>(packed.length / 5);
+        for (int i = 0; i < packed.length; i += 5) {
+            rows.add(Arrays.copyOfRange(packed, i, i + 5));
         }
+        return ResponseEntity.ok(Map.of("count", rows.size(), "keypoints", rows));
     }
 }
\ No newline at end of file
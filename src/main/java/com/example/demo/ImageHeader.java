@@ -0,0 +1,85 @@
+package com.example.demo;
+
+/**
+ * Reads the format and dimensions of a PNG or JPEG from its first bytes,
+ * so bogus or oversized uploads can be rejected before a full decode.
+ */
+public record ImageHeader(String format, int width, int height) {
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    public long pixels() {
+        return (long) width * height;
+    }
+
+    public static ImageHeader read(byte[] data) throws FileValidationException {
+        if (startsWith(data, PNG_SIGNATURE)) {
+            return readPng(data);
+        }
+        if (data.length > 3 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8 && (data[2] & 0xff) == 0xff) {
+            return readJpeg(data);
+        }
+        throw new FileValidationException("Unrecognized image format");
+    }
+
+    private static ImageHeader readPng(byte[] data) throws FileValidationException {
+        // IHDR is always the first chunk: length(4) type(4) width(4) height(4)
+        if (data.length < 24 || data[12] != 'I' || data[13] != 'H' || data[14] != 'D' || data[15] != 'R') {
+            throw new FileValidationException("Corrupt PNG header");
+        }
+        return checked(new ImageHeader("png", readInt(data, 16), readInt(data, 20)));
+    }
+
+    private static ImageHeader readJpeg(byte[] data) throws FileValidationException {
+        int offset = 2;
+        while (offset + 4 <= data.length) {
+            if ((data[offset] & 0xff) != 0xff) {
+                break;
+            }
+            int marker = data[offset + 1] & 0xff;
+            if (marker == 0xff) {
+                offset++;
+                continue;
+            }
+            int length = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+
+            // SOF0..SOF15, excluding DHT (C4), JPG (C8) and DAC (CC)
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                if (offset + 9 > data.length) {
+                    break;
+                }
+                int height = ((data[offset + 5] & 0xff) << 8) | (data[offset + 6] & 0xff);
+                int width = ((data[offset + 7] & 0xff) << 8) | (data[offset + 8] & 0xff);
+                return checked(new ImageHeader("jpeg", width, height));
+            }
+            offset += 2 + length;
+        }
+        throw new FileValidationException("Corrupt JPEG header");
+    }
+
+    private static ImageHeader checked(ImageHeader header) throws FileValidationException {
+        if (header.width <= 0 || header.height <= 0) {
+            throw new FileValidationException("Invalid image dimensions");
+        }
+        return header;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.stereotype.Service;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class ImagePipelineService {
+
+    private final ImageProcessingService imageProcessingService;
+    private final FeatureDetectionService featureDetectionService;
+    private final ImageCache imageCache;
+
+    public ImagePipelineService(
+            ImageProcessingService imageProcessingService,
+            FeatureDetectionService featureDetectionService,
+            ImageCache imageCache
+    ) {
+        this.imageProcessingService = imageProcessingService;
+        this.featureDetectionService = featureDetectionService;
+        this.imageCache = imageCache;
+    }
+
+    /**
+     * Runs the operations in order over a single in-memory image. Takes
+     * ownership of {@code image}; every intermediate result is released when
+     * the run ends and only the final Mat is returned to the caller.
+     * Consecutive brightness or channel operations are composed into a
+     * single lookup-table pass.
+     */
+    public Mat run(Mat image, List<Map<String, Object>> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Pipeline requires at least one operation");
+        }
+
+        try (MatScope scope = new MatScope()) {
+            Mat current = scope.track(image);
+            for (int i = 0; i < operations.size(); i++) {
+                PointOp pointOp = pointOp(operations.get(i));
+                if (pointOp == null) {
+                    current = scope.track(toBgr(apply(current, operations.get(i), scope)));
+                    continue;
+                }
+
+                PointOp next;
+                while (i + 1 < operations.size()
+                        && (next = pointOp(operations.get(i + 1))) != null
+                        && pointOp.composesWith(next)) {
+                    pointOp = pointOp.then(next);
+                    i++;
+                }
+                current = scope.track(imageProcessingService.applyPointOp(current, pointOp));
+            }
+            return scope.detach(current);
+        }
+    }
+
+    /**
+     * Every stored image a run over {@code currentImage} reads from.
+     */
+    public List<String> sources(String currentImage, List<Map<String, Object>> operations) {
+        List<String> sources = new ArrayList<>();
+        sources.add(currentImage);
+        for (Map<String, Object> operation : operations) {
+            Object secondImage = operation.get("secondImage");
+            if (secondImage != null) {
+                sources.add(secondImage.toString());
+            }
+        }
+        return sources;
+    }
+
+    private Mat apply(Mat image, Map<String, Object> operation, MatScope scope) {
+        String type = param(operation, "type");
+
+        switch (type.toLowerCase()) {
+            case "grayscale":
+                return imageProcessingService.convertToGrayscale(image);
+
+            case "prewitt":
+                return imageProcessingService.applyPrewitt(image);
+
+            case "filter":
+                return imageProcessingService.applyFilter(image,
+                        param(operation, "filterType"),
+                        operation.containsKey("kernelSize") ? Integer.parseInt(param(operation, "kernelSize")) : 0,
+                        Boolean.parseBoolean(String.valueOf(operation.get("normalize"))));
+
+            case "features":
+                return featureDetectionService.detectFeatures(image, param(operation, "detectorType"),
+                        DetectorParams.from(operation));
+
+            case "fusion":
+                Mat second = scope.track(imageCache.getResized(param(operation, "secondImage"),
+                        image.cols(), image.rows()));
+                return imageProcessingService.blendImages(image, second,
+                        Float.parseFloat(param(operation, "blendValue")));
+
+            default:
+                throw new IllegalArgumentException("Unsupported pipeline operation: " + type);
+        }
+    }
+
+    // Brightness and channel adjustments as point operations, or null for any other operation.
+    private PointOp pointOp(Map<String, Object> operation) {
+        return switch (param(operation, "type").toLowerCase()) {
+            case "brightness" -> PointOp.brightness(Float.parseFloat(param(operation, "value")));
+            case "channel" -> PointOp.channelOffset(param(operation, "channel"),
+                    Float.parseFloat(param(operation, "value")));
+            default -> null;
+        };
+    }
+
+    // Single-channel results are widened back to BGR, as ImageUtils.readImage
+    // would do when the next endpoint reloaded them from disk.
+    private Mat toBgr(Mat image) {
+        if (image.channels() == 1) {
+            Imgproc.cvtColor(image, image, Imgproc.COLOR_GRAY2BGR);
+        }
+        return image;
+    }
+
+    private String param(Map<String, Object> operation, String key) {
+        Object value = operation.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing pipeline parameter: " + key);
+        }
+        return value.toString();
+    }
+}
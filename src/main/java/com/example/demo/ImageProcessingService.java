@@ -1,30 +1,51 @@
 package com.example.demo;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 @Service
 public class ImageProcessingService {
 
-    public Mat adjustBrightness(Mat original, float value) {
-        validateColorSpace(original, 3);
-        Mat hsvImage = new Mat();
-        Imgproc.cvtColor(original, hsvImage, Imgproc.COLOR_BGR2HSV);
+    private final KernelRegistry kernelRegistry;
+    private final MeterRegistry meterRegistry;
+    private final long tileThresholdPixels;
+    private final ForkJoinPool tilePool;
 
-        List<Mat> channels = new ArrayList<>();
-        Core.split(hsvImage, channels);
-        channels.get(2).convertTo(channels.get(2), -1, value, 0);
-        Core.merge(channels, hsvImage);
+    public ImageProcessingService(
+            KernelRegistry kernelRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${processing.tile.threshold-pixels:4000000}") long tileThresholdPixels,
+            @Value("${processing.tile.parallelism:0}") int tileParallelism
+    ) {
+        this.kernelRegistry = kernelRegistry;
+        this.meterRegistry = meterRegistry;
+        this.tileThresholdPixels = tileThresholdPixels;
+        this.tilePool = new ForkJoinPool(tileParallelism > 0
+                ? tileParallelism
+                : Runtime.getRuntime().availableProcessors());
+    }
 
-        Mat result = new Mat();
-        Imgproc.cvtColor(hsvImage, result, Imgproc.COLOR_HSV2BGR);
-        return result;
+    @PreDestroy
+    public void shutdown() {
+        tilePool.shutdown();
+    }
+
+    public Mat adjustBrightness(Mat original, float value) {
+        validateColorSpace(original, 3);
+        return timed("brightness", () -> PointOp.brightness(value).apply(original));
     }
 
     private void validateColorSpace(Mat image, int expectedChannels) {
@@ -36,107 +57,250 @@ public class ImageProcessingService {
     }
 
     public Mat convertToGrayscale(Mat image) {
-        Mat nextImgage = new Mat();
-        Imgproc.cvtColor(image,nextImgage, Imgproc.COLOR_BGR2GRAY);
-        return nextImgage;
+        return timed("grayscale", () -> {
+            Mat nextImgage = new Mat();
+            Imgproc.cvtColor(image,nextImgage, Imgproc.COLOR_BGR2GRAY);
+            return nextImgage;
+        });
     }
 
     public Mat applyPrewitt(Mat image) {
         validateColorSpace(image, 3);
+        return timed("prewitt", () -> prewitt(image));
+    }
 
-        Mat gray = new Mat();
-        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
-
-        Mat gradX = new Mat();
-        Mat gradY = new Mat();
+    private Mat prewitt(Mat image) {
+        try (MatScope scope = new MatScope()) {
+            Mat gray = scope.newMat();
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
 
-        Mat kernelX = new Mat(3, 3, CvType.CV_32F) {{
-            put(0, 0, -1, 0, 1);
-            put(1, 0, -1, 0, 1);
-            put(2, 0, -1, 0, 1);
-        }};
-        Mat kernelY = new Mat(3, 3, CvType.CV_32F) {{
-            put(0, 0, -1, -1, -1);
-            put(0, 1, 0, 0, 0);
-            put(0, 2, 1, 1, 1);
-        }};
+            Mat gradX = scope.newMat();
+            Mat gradY = scope.newMat();
 
-        Imgproc.filter2D(gray, gradX, CvType.CV_32F, kernelX);
-        Imgproc.filter2D(gray, gradY, CvType.CV_32F, kernelY);
+            // Prewitt is separable: a [-1 0 1] derivative along one axis and a
+            // [1 1 1] smoothing along the other.
+            Mat derivative = kernelRegistry.derivative();
+            Mat smoothing = kernelRegistry.ones(3);
+            Imgproc.sepFilter2D(gray, gradX, CvType.CV_32F, derivative, smoothing);
+            Imgproc.sepFilter2D(gray, gradY, CvType.CV_32F, smoothing, derivative);
 
-        Core.convertScaleAbs(gradX, gradX);
-        Core.convertScaleAbs(gradY, gradY);
+            Core.convertScaleAbs(gradX, gradX);
+            Core.convertScaleAbs(gradY, gradY);
 
-        Mat result = new Mat();
-        Core.addWeighted(gradX, 0.5, gradY, 0.5, 0, result);
+            Mat result = new Mat();
+            Core.addWeighted(gradX, 0.5, gradY, 0.5, 0, result);
 
-        return result;
+            return result;
+        }
     }
     public Mat adjustColorChannel(Mat image, String channel, float value) {
-        List<Mat> channels = new ArrayList<>();
-        Core.split(image, channels);
-
-        switch(channel.toLowerCase()) {
-            case "red":
-                channels.get(2).convertTo(channels.get(2), -1, 1, value);
-                break;
-            case "green":
-                channels.get(1).convertTo(channels.get(1), -1, 1, value);
-                break;
-            case "blue":
-                channels.get(0).convertTo(channels.get(0), -1, 1, value);
-                break;
-        }
+        validateColorSpace(image, 3);
+        return timed("channel", () -> PointOp.channelOffset(channel, value).apply(image));
+    }
 
-        Mat result = new Mat();
-        Core.merge(channels, result);
-        return result;
+    /**
+     * Applies a composed chain of point operations, e.g. several pipeline
+     * brightness and channel steps fused into one lookup-table pass.
+     */
+    public Mat applyPointOp(Mat image, PointOp pointOp) {
+        validateColorSpace(image, 3);
+        return timed("point_ops", () -> pointOp.apply(image));
     }
 
     public Mat applyFilter(Mat image, String filterType) {
+        return applyFilter(image, filterType, 0, false);
+    }
+
+    /**
+     * @param kernelSize kernel size in pixels, or 0 for the filter's default
+     * @param normalize  whether the disk kernel is scaled to sum to one
+     */
+    public Mat applyFilter(Mat image, String filterType, int kernelSize, boolean normalize) {
         validateColorSpace(image, 3);
+        FilterSpec spec = new FilterSpec(filterType.toLowerCase(), kernelSize, normalize);
+
+        // Tagged after FilterSpec has validated the type, so only known filters become tags
+        Timer timer = operationTimer("filter_" + spec.type());
+        if (image.total() < tileThresholdPixels) {
+            return timer.record(() -> {
+                filter(image, image, spec);
+                return image;
+            });
+        }
+        return timer.record(() -> applyTiled(image, spec));
+    }
+
+    private record FilterSpec(String type, int size, boolean normalize) {
+
+        FilterSpec {
+            int defaultSize = switch (type) {
+                case "average" -> 6;
+                case "disk" -> 15;
+                case "gaussian", "log" -> 5;
+                case "laplacian", "sobel" -> 3;
+                default -> throw new IllegalArgumentException("Unknown filter type: " + type);
+            };
+            if (size == 0) {
+                size = defaultSize;
+            }
+            if (size < 1 || size > 31) {
+                throw new IllegalArgumentException("Kernel size must be between 1 and 31");
+            }
+            boolean oddOnly = !type.equals("average") && !type.equals("disk");
+            if (oddOnly && size % 2 == 0) {
+                throw new IllegalArgumentException("Kernel size for " + type + " must be odd");
+            }
+            if (type.equals("sobel") && size > 7) {
+                throw new IllegalArgumentException("Kernel size for sobel must be at most 7");
+            }
+        }
 
-        switch(filterType.toLowerCase()) {
-            case "average":
-                Imgproc.blur(image, image, new Size(6, 6));
-                break;
-
-            case "disk":
-                // Create disk-shaped kernel
-                Mat kernel = Imgproc.getStructuringElement(
-                        Imgproc.MORPH_ELLIPSE,
-                        new Size(15, 15)
-                );
-                Imgproc.filter2D(image, image, -1, kernel);
-                break;
-
-            case "laplacian":
-                Mat laplacian = new Mat();
-                Imgproc.Laplacian(image, laplacian, CvType.CV_32F, 3);
-                laplacian.convertTo(image, CvType.CV_8U);
-                break;
-
-            case "sobel":
-                Mat gradX = new Mat();
-                Imgproc.Sobel(image, gradX, CvType.CV_32F, 1, 0);
-                Core.convertScaleAbs(gradX, image);
-                break;
-
-            case "log":
-                Imgproc.GaussianBlur(image, image, new Size(5, 5), 0.9);
-                Imgproc.Laplacian(image, image, CvType.CV_32F, 3);
-                image.convertTo(image, CvType.CV_8U);
-                break;
-
-            default:
-                throw new IllegalArgumentException("Unknown filter type: " + filterType);
+        // Rows the filter reads beyond the row it writes; tiles overlap by this much.
+        int halo() {
+            return switch (type) {
+                case "log" -> size / 2 + 1;
+                // ksize 1 still uses a 3x3 aperture
+                case "laplacian" -> Math.max(1, size / 2);
+                default -> size / 2;
+            };
         }
-        return image;
+    }
+
+    private void filter(Mat src, Mat dst, FilterSpec spec) {
+        int size = spec.size();
+        try (MatScope scope = new MatScope()) {
+            switch(spec.type()) {
+                case "average":
+                    Imgproc.blur(src, dst, new Size(size, size));
+                    break;
+
+                case "disk":
+                    Imgproc.filter2D(src, dst, -1, kernelRegistry.disk(size, spec.normalize()));
+                    break;
+
+                case "gaussian":
+                    Mat gaussian = kernelRegistry.gaussian(size, 0);
+                    Imgproc.sepFilter2D(src, dst, -1, gaussian, gaussian);
+                    break;
+
+                case "laplacian":
+                    Mat laplacian = scope.newMat();
+                    Imgproc.Laplacian(src, laplacian, CvType.CV_32F, size);
+                    laplacian.convertTo(dst, CvType.CV_8U);
+                    break;
+
+                case "sobel":
+                    Mat gradX = scope.newMat();
+                    Imgproc.Sobel(src, gradX, CvType.CV_32F, 1, 0, size);
+                    Core.convertScaleAbs(gradX, dst);
+                    break;
+
+                case "log":
+                    Mat blurred = scope.newMat();
+                    Imgproc.GaussianBlur(src, blurred, new Size(size, size), 0.9);
+                    // Out of place: an in-place Laplacian that changes depth reads
+                    // partly overwritten input.
+                    Mat logResponse = scope.newMat();
+                    Imgproc.Laplacian(blurred, logResponse, CvType.CV_32F, 3);
+                    logResponse.convertTo(dst, CvType.CV_8U);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown filter type: " + spec.type());
+            }
+        }
+    }
+
+    /**
+     * Splits the image into horizontal strips that overlap by the filter's
+     * halo, filters them in parallel and copies each strip's interior into
+     * the result. The overlap gives every written row the same neighbourhood
+     * it has in the full image, so the stitched output has no seams.
+     */
+    private Mat applyTiled(Mat image, FilterSpec spec) {
+        int halo = spec.halo();
+        int rows = image.rows();
+        int tileRows = Math.max(halo * 4, (rows + tilePool.getParallelism() * 2 - 1) / (tilePool.getParallelism() * 2));
+
+        Mat result = new Mat(image.size(), image.type());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int top = 0; top < rows; top += tileRows) {
+            int y0 = top;
+            int y1 = Math.min(rows, top + tileRows);
+            tasks.add(tilePool.submit(() -> {
+                int haloTop = Math.max(0, y0 - halo);
+                int haloBottom = Math.min(rows, y1 + halo);
+                try (MatScope scope = new MatScope()) {
+                    // A continuous copy, so OpenCV takes the same code path as
+                    // for the full image rather than its ROI variant.
+                    Mat strip = scope.track(image.submat(haloTop, haloBottom, 0, image.cols()));
+                    Mat tile = scope.track(strip.clone());
+                    Mat filtered = scope.newMat();
+                    filter(tile, filtered, spec);
+                    Mat interior = scope.track(filtered.submat(y0 - haloTop, y1 - haloTop, 0, image.cols()));
+                    Mat target = scope.track(result.submat(y0, y1, 0, image.cols()));
+                    interior.copyTo(target);
+                }
+            }));
+        }
+
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } catch (RuntimeException e) {
+            result.release();
+            throw e;
+        }
+        return result;
     }
 
     public Mat blendImages(Mat image1, Mat image2, float blendValue) {
-        Mat blended = new Mat();
-        Core.addWeighted(image1, 1 - blendValue, image2, blendValue, 0, blended);
-        return blended;
+        return timed("blend", () -> {
+            Mat blended = new Mat();
+            Core.addWeighted(image1, 1 - blendValue, image2, blendValue, 0, blended);
+            return blended;
+        });
+    }
+
+    /**
+     * Weighted sum of same-sized layers. Two layers are a single addWeighted;
+     * more are accumulated in floating point and rounded back to 8 bits
+     * once, so the result does not depend on the order of the layers.
+     */
+    public Mat blendLayers(List<Mat> layers, List<Float> weights) {
+        if (layers.size() < 2 || layers.size() != weights.size()) {
+            throw new IllegalArgumentException("Blending requires at least two layers, each with a weight");
+        }
+        return timed("blend", () -> {
+            Mat blended = new Mat();
+            if (layers.size() == 2) {
+                Core.addWeighted(layers.get(0), weights.get(0), layers.get(1), weights.get(1), 0, blended);
+                return blended;
+            }
+
+            try (MatScope scope = new MatScope()) {
+                Mat sum = scope.newMat();
+                Core.addWeighted(layers.get(0), weights.get(0), layers.get(1), weights.get(1), 0, sum,
+                        CvType.CV_32F);
+                for (int i = 2; i < layers.size(); i++) {
+                    Core.addWeighted(sum, 1, layers.get(i), weights.get(i), 0, sum, CvType.CV_32F);
+                }
+                sum.convertTo(blended, CvType.CV_8U);
+                return blended;
+            }
+        });
+    }
+
+    private Mat timed(String operation, Supplier<Mat> body) {
+        return operationTimer(operation).record(body);
+    }
+
+    private Timer operationTimer(String operation) {
+        return Timer.builder("image.operation")
+                .description("Time spent in one image operation")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Where uploads and processed results are kept, addressed by the relative
+ * names {@link StorageLayout} hands out. A name is written once and never
+ * rewritten with different content, so anything derived from it (decoded
+ * images, local copies, client caches) stays valid until it is deleted.
+ *
+ * <p>storage.type selects the implementation: "local" keeps everything in
+ * upload.dir on this node; "shared" keeps it in storage.shared.dir, a
+ * directory every node mounts, with upload.dir as this node's read-through
+ * cache. See {@link StorageConfig}.
+ */
+public interface ImageStore {
+
+    /**
+     * Publishes {@code data} under {@code name}. Readers, on this node or
+     * any other, see either no file or the complete file.
+     */
+    void put(String name, byte[] data) throws IOException;
+
+    boolean exists(String name);
+
+    // -1 when there is no such file
+    long size(String name);
+
+    // Last write or touch, 0 when there is no such file
+    long lastModified(String name);
+
+    /**
+     * Returns a file on this node's disk holding the content, for OpenCV and
+     * sendfile, which need a real path. Throws NoSuchFileException when the
+     * store has no such file and IllegalArgumentException when the name
+     * points outside the store.
+     */
+    Path localPath(String name) throws IOException;
+
+    /**
+     * Records that the file is still in use, so that other nodes' cleanup
+     * does not delete it. A no-op where only this node uses the files.
+     */
+    void touch(String name);
+
+    void delete(String name) throws IOException;
+
+    /**
+     * Every complete file in the store, for indexing at startup.
+     */
+    List<StoredFile> list() throws IOException;
+
+    record StoredFile(String name, long size, long lastModified) {
+    }
+}
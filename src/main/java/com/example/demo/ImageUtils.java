@@ -1,35 +1,93 @@
 package com.example.demo;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+/**
+ * Decode and encode helpers. Static, so their timings are recorded in
+ * Micrometer's global registry, which Spring Boot's registry is part of.
+ */
 public class ImageUtils {
 
+    private static final Timer READ_TIMER = decodeTimer("file");
+    private static final Timer DECODE_TIMER = decodeTimer("memory");
+    private static final Timer ENCODE_TIMER = Timer.builder("image.encode")
+            .description("Time to encode a processed image")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+    private static final DistributionSummary DECODED_MEGAPIXELS = DistributionSummary.builder("image.decoded.megapixels")
+            .description("Size of each decoded image")
+            .baseUnit("megapixels")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+
     public static Mat readImage(String filePath) {
         Path path = Paths.get(filePath);
         if (!path.toFile().exists()) {
             throw new IllegalArgumentException("File not found: " + filePath);
         }
 
-        Mat image = Imgcodecs.imread(filePath);
+        Mat image = READ_TIMER.record(() -> Imgcodecs.imread(filePath));
         if (image.empty()) {
             throw new IllegalArgumentException("Failed to load image: " + filePath);
         }
+        DECODED_MEGAPIXELS.record(image.total() / 1e6);
+        return toBgr(image);
+    }
+
+    public static Mat decodeImage(byte[] data) {
+        MatOfByte buffer = new MatOfByte(data);
+        Mat image = DECODE_TIMER.record(() -> Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR));
+        buffer.release();
+        if (image.empty()) {
+            throw new IllegalArgumentException("Failed to decode image");
+        }
+        DECODED_MEGAPIXELS.record(image.total() / 1e6);
+        return toBgr(image);
+    }
+
+    public static byte[] encodeImage(Mat image) {
+        return encodeImage(image, OutputFormat.JPEG);
+    }
 
+    public static byte[] encodeImage(Mat image, OutputFormat format) {
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt params = format.params();
+        try {
+            boolean encoded = ENCODE_TIMER.record(() ->
+                    Imgcodecs.imencode("." + format.extension(), image, buffer, params));
+            if (!encoded) {
+                throw new IllegalArgumentException("Failed to encode image");
+            }
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+            params.release();
+        }
+    }
+
+    // source: "file" for imread, "memory" for imdecode
+    private static Timer decodeTimer(String source) {
+        return Timer.builder("image.decode")
+                .description("Time to decode an image")
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Mat toBgr(Mat image) {
         switch (image.channels()) {
             case 1 -> Imgproc.cvtColor(image, image, Imgproc.COLOR_GRAY2BGR);
             case 4 -> Imgproc.cvtColor(image, image, Imgproc.COLOR_BGRA2BGR);
         }
         return image;
     }
-
-    public static String saveProcessedImage(Mat image, String prefix, String uploadDir) {
-        if (!uploadDir.endsWith("/")) uploadDir += "/";
-        String filename = prefix + "_" + System.currentTimeMillis() + ".jpg";
-        Imgcodecs.imwrite(uploadDir + filename, image);
-        return filename;
-    }
-}
\ No newline at end of file
+}
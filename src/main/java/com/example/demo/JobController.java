@@ -0,0 +1,45 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class JobController {
+
+    private final JobService jobService;
+
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    // {"currentImage": ..., "operations": [...]} with operations as for /pipeline
+    @PostMapping("/jobs")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> submitJob(@RequestBody Map<String, Object> body) throws JsonProcessingException {
+        String currentImage = body.get("currentImage").toString();
+        List<Map<String, Object>> operations = (List<Map<String, Object>>) body.get("operations");
+
+        JobRecord job = jobService.submit(currentImage, operations);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.status());
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> jobStatus(@PathVariable String jobId) {
+        return ResponseEntity.ok(jobService.find(jobId).status());
+    }
+
+    @GetMapping("/jobs/{jobId}/events")
+    public SseEmitter jobEvents(@PathVariable String jobId) {
+        try {
+            return jobService.subscribe(jobId);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+}
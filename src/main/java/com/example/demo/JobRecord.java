@@ -0,0 +1,129 @@
+package com.example.demo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metadata of an asynchronous processing job, kept in the embedded database
+ * so queued and finished jobs are still known after a restart.
+ */
+@Entity
+@Table(name = "processing_job")
+public class JobRecord {
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    @Id
+    private String id;
+
+    @Column(nullable = false)
+    private String sourceImage;
+
+    // The operations list as submitted, in the same JSON shape /pipeline takes
+    @Lob
+    @Column(nullable = false)
+    private String operations;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private State state;
+
+    private String processedImage;
+
+    @Column(length = 1024)
+    private String error;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    private Instant finishedAt;
+
+    protected JobRecord() {
+    }
+
+    JobRecord(String id, String sourceImage, String operations) {
+        this.id = id;
+        this.sourceImage = sourceImage;
+        this.operations = operations;
+        this.state = State.QUEUED;
+        this.createdAt = Instant.now();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceImage() {
+        return sourceImage;
+    }
+
+    public String getOperations() {
+        return operations;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getProcessedImage() {
+        return processedImage;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public boolean finished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    void started() {
+        state = State.RUNNING;
+    }
+
+    void succeeded(String filename) {
+        state = State.DONE;
+        processedImage = filename;
+        finishedAt = Instant.now();
+    }
+
+    void failed(String message) {
+        state = State.FAILED;
+        error = message == null || message.length() <= 1024 ? message : message.substring(0, 1024);
+        finishedAt = Instant.now();
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", id);
+        status.put("state", state.name().toLowerCase());
+        status.put("createdAt", createdAt.toString());
+        if (processedImage != null) {
+            status.put("processedImage", processedImage);
+        }
+        if (error != null) {
+            status.put("error", error);
+        }
+        if (finishedAt != null) {
+            status.put("finishedAt", finishedAt.toString());
+        }
+        return status;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.demo;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface JobRepository extends JpaRepository<JobRecord, String> {
+
+    List<JobRecord> findByStateInOrderByCreatedAt(Collection<JobRecord.State> states);
+
+    @Transactional
+    long deleteByFinishedAtBefore(Instant threshold);
+}
@@ -0,0 +1,219 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs pipeline operations in the background so slow detectors (KAZE, MSER
+ * on large images) do not hold an HTTP request open. A fixed number of
+ * workers drain a bounded queue; when it is full, submission fails with
+ * {@link ComputeBusyException}. Job metadata lives in the embedded database,
+ * and jobs that were queued or running when the server stopped are
+ * resubmitted on startup.
+ */
+@Service
+public class JobService {
+
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+    private static final List<JobRecord.State> UNFINISHED = List.of(JobRecord.State.QUEUED, JobRecord.State.RUNNING);
+
+    private final JobRepository jobRepository;
+    private final ImagePipelineService imagePipelineService;
+    private final ImageCache imageCache;
+    private final FileStorageService fileStorageService;
+    private final ComputeExecutor computeExecutor;
+    private final OutputFormats outputFormats;
+    private final ObjectMapper objectMapper;
+    private final long retentionMillis;
+    private final long sseTimeoutMillis;
+    private final ThreadPoolExecutor workers;
+
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public JobService(
+            JobRepository jobRepository,
+            ImagePipelineService imagePipelineService,
+            ImageCache imageCache,
+            FileStorageService fileStorageService,
+            ComputeExecutor computeExecutor,
+            OutputFormats outputFormats,
+            ObjectMapper objectMapper,
+            @Value("${jobs.pool.size:2}") int poolSize,
+            @Value("${jobs.queue.capacity:100}") int queueCapacity,
+            @Value("${jobs.retention-minutes:60}") long retentionMinutes,
+            @Value("${jobs.sse-timeout-millis:600000}") long sseTimeoutMillis
+    ) {
+        this.jobRepository = jobRepository;
+        this.imagePipelineService = imagePipelineService;
+        this.imageCache = imageCache;
+        this.fileStorageService = fileStorageService;
+        this.computeExecutor = computeExecutor;
+        this.outputFormats = outputFormats;
+        this.objectMapper = objectMapper;
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+        this.sseTimeoutMillis = sseTimeoutMillis;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "job-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public JobRecord submit(String currentImage, List<Map<String, Object>> operations) throws JsonProcessingException {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Job requires at least one operation");
+        }
+
+        JobRecord job = jobRepository.save(new JobRecord(UUID.randomUUID().toString(), currentImage,
+                objectMapper.writeValueAsString(operations)));
+        try {
+            workers.execute(() -> run(job.getId()));
+        } catch (RejectedExecutionException e) {
+            jobRepository.delete(job);
+            throw new ComputeBusyException("Job queue is full, please retry later");
+        }
+        return job;
+    }
+
+    public JobRecord find(String jobId) {
+        return jobRepository.findById(jobId)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown job: " + jobId));
+    }
+
+    /**
+     * Sends the job's current status at once, then every state change until
+     * it finishes.
+     */
+    public SseEmitter subscribe(String jobId) {
+        JobRecord job = find(jobId);
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        if (job.finished()) {
+            send(emitter, job);
+            emitter.complete();
+            return emitter;
+        }
+
+        subscribers.compute(jobId, (id, emitters) -> {
+            List<SseEmitter> list = emitters != null ? emitters : new CopyOnWriteArrayList<>();
+            list.add(emitter);
+            return list;
+        });
+        emitter.onCompletion(() -> unsubscribe(jobId, emitter));
+        emitter.onTimeout(() -> unsubscribe(jobId, emitter));
+        emitter.onError(e -> unsubscribe(jobId, emitter));
+
+        // Re-read after registering, so a job finishing in between is not missed.
+        job = find(jobId);
+        send(emitter, job);
+        if (job.finished()) {
+            unsubscribe(jobId, emitter);
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        for (JobRecord job : jobRepository.findByStateInOrderByCreatedAt(UNFINISHED)) {
+            try {
+                workers.execute(() -> run(job.getId()));
+            } catch (RejectedExecutionException e) {
+                job.failed("Job queue was full when resuming after a restart");
+                jobRepository.save(job);
+            }
+        }
+    }
+
+    @Scheduled(fixedRate = 30 * 60 * 1000)
+    public void purgeFinished() {
+        long deleted = jobRepository.deleteByFinishedAtBefore(Instant.now().minusMillis(retentionMillis));
+        if (deleted > 0) {
+            log.info("Purged {} finished jobs", deleted);
+        }
+    }
+
+    private void run(String jobId) {
+        JobRecord job = find(jobId);
+        job.started();
+        publish(jobRepository.save(job));
+
+        try (MatScope scope = new MatScope()) {
+            List<Map<String, Object>> operations = objectMapper.readValue(job.getOperations(), new TypeReference<>() {});
+            Mat image = scope.track(imageCache.get(job.getSourceImage()));
+            Mat processedImage = scope.track(computeExecutor.executeWhenFree(() ->
+                    imagePipelineService.run(image, operations)));
+            job.succeeded(fileStorageService.saveProcessedImage(processedImage, "job",
+                    List.of(job.getSourceImage()), outputFormats.forPipeline(Map.of(), operations)));
+        } catch (Exception e) {
+            job.failed(e.getMessage());
+        }
+        publish(jobRepository.save(job));
+    }
+
+    private void publish(JobRecord job) {
+        List<SseEmitter> emitters = job.finished() ? subscribers.remove(job.getId()) : subscribers.get(job.getId());
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            send(emitter, job);
+            if (job.finished()) {
+                emitter.complete();
+            }
+        }
+    }
+
+    // Drops the job's list with its last emitter, so finished jobs leave nothing behind
+    private void unsubscribe(String jobId, SseEmitter emitter) {
+        subscribers.computeIfPresent(jobId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private void send(SseEmitter emitter, JobRecord job) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(job.status()));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away or the emitter already completed
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.demo;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds filter kernels once and shares them between requests. Kernels are
+ * only ever read by OpenCV, so the cached Mats are never released and must
+ * not be tracked by a {@link MatScope}.
+ */
+@Component
+public class KernelRegistry {
+
+    private final Map<String, Mat> kernels = new ConcurrentHashMap<>();
+
+    // Row vector [-1, 0, 1]; the derivative half of the separable Prewitt operator.
+    public Mat derivative() {
+        return kernels.computeIfAbsent("derivative", key -> {
+            Mat kernel = new Mat(1, 3, CvType.CV_32F);
+            kernel.put(0, 0, -1, 0, 1);
+            return kernel;
+        });
+    }
+
+    // Row vector of ones; the smoothing half of the separable Prewitt operator.
+    public Mat ones(int size) {
+        return kernels.computeIfAbsent("ones:" + size, key -> Mat.ones(1, size, CvType.CV_32F));
+    }
+
+    public Mat gaussian(int size, double sigma) {
+        return kernels.computeIfAbsent("gaussian:" + size + ":" + sigma,
+                key -> Imgproc.getGaussianKernel(size, sigma, CvType.CV_32F));
+    }
+
+    public Mat disk(int size, boolean normalized) {
+        return kernels.computeIfAbsent("disk:" + size + ":" + normalized, key -> {
+            Mat element = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size, size));
+            Mat kernel = new Mat();
+            double scale = normalized ? 1.0 / Core.countNonZero(element) : 1.0;
+            element.convertTo(kernel, CvType.CV_32F, scale);
+            element.release();
+            return kernel;
+        });
+    }
+}
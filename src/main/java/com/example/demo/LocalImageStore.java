@@ -0,0 +1,125 @@
+package com.example.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Keeps files in a directory on this node. Files are written beside their
+ * target and renamed into place, so a concurrent reader or an identical
+ * concurrent write never sees a partial file.
+ */
+public class LocalImageStore implements ImageStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    protected final Path root;
+
+    public LocalImageStore(String directory) {
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        publish(name, temp -> Files.write(temp, data));
+    }
+
+    /**
+     * Publishes a copy of {@code source} under {@code name}, streamed from
+     * disk rather than read into memory.
+     */
+    public void copy(Path source, String name) throws IOException {
+        publish(name, temp -> Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return file(name).isFile();
+    }
+
+    @Override
+    public long size(String name) {
+        File file = file(name);
+        return file.isFile() ? file.length() : -1;
+    }
+
+    @Override
+    public long lastModified(String name) {
+        return file(name).lastModified();
+    }
+
+    @Override
+    public Path localPath(String name) throws IOException {
+        Path path = resolve(name);
+        if (!Files.isRegularFile(path)) {
+            throw new NoSuchFileException(name);
+        }
+        return path;
+    }
+
+    @Override
+    public void touch(String name) {
+        // This node's StorageIndex already tracks every use
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(resolve(name));
+    }
+
+    @Override
+    public List<StoredFile> list() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        List<StoredFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.toList()) {
+                File file = path.toFile();
+                if (!file.isFile() || file.getName().endsWith(TEMP_SUFFIX)) {
+                    continue;
+                }
+                // Names are paths relative to the root, with '/' on every platform
+                String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                files.add(new StoredFile(name, file.length(), file.lastModified()));
+            }
+        }
+        return files;
+    }
+
+    private void publish(String name, Writer writer) throws IOException {
+        Path target = resolve(name);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "upload", TEMP_SUFFIX);
+        try {
+            writer.write(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    protected Path resolve(String name) {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        return path;
+    }
+
+    private File file(String name) {
+        return resolve(name).toFile();
+    }
+
+    private interface Writer {
+        void write(Path temp) throws IOException;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.demo;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks native Mats allocated while handling a request and releases them
+ * all on {@link #close()}, instead of waiting for the GC to finalize them.
+ * Intended for try-with-resources; a Mat that must outlive the scope is
+ * handed back with {@link #detach(Mat)}.
+ */
+public final class MatScope implements AutoCloseable {
+
+    private static final Set<MatScope> OPEN_SCOPES = ConcurrentHashMap.newKeySet();
+
+    private final List<Mat> mats = new ArrayList<>();
+
+    public MatScope() {
+        OPEN_SCOPES.add(this);
+    }
+
+    public Mat newMat() {
+        return track(new Mat());
+    }
+
+    public synchronized <T extends Mat> T track(T mat) {
+        mats.add(mat);
+        return mat;
+    }
+
+    public synchronized <T extends Mat, C extends Collection<T>> C trackAll(C collection) {
+        mats.addAll(collection);
+        return collection;
+    }
+
+    public synchronized <T extends Mat> T detach(T mat) {
+        mats.removeIf(tracked -> tracked == mat);
+        return mat;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+        OPEN_SCOPES.remove(this);
+    }
+
+    private synchronized long bytes() {
+        long total = 0;
+        for (Mat mat : mats) {
+            total += ImageCache.sizeOf(mat);
+        }
+        return total;
+    }
+
+    /**
+     * Native bytes currently held by Mats tracked in open scopes.
+     */
+    public static long liveBytes() {
+        long total = 0;
+        for (MatScope scope : OPEN_SCOPES) {
+            total += scope.bytes();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Meters for state that has no Spring bean of its own to register it.
+ * Components that own their counters implement {@link MeterBinder} and are
+ * bound by Spring Boot directly.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder matScopeMetrics() {
+        return registry -> Gauge.builder("opencv.mat.live.bytes", MatScope::liveBytes)
+                .description("Native bytes held by Mats tracked in open MatScopes")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    // The store bean is declared as ImageStore, so Spring Boot cannot tell
+    // when it is a CachingImageStore with meters of its own
+    @Bean
+    public MeterBinder imageStoreMetrics(ImageStore imageStore) {
+        return registry -> {
+            if (imageStore instanceof MeterBinder binder) {
+                binder.bindTo(registry);
+            }
+        };
+    }
+}
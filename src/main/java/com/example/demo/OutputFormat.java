@@ -0,0 +1,57 @@
+package com.example.demo;
+
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.http.MediaType;
+
+/**
+ * Encoding of a processed result: the file extension OpenCV picks the codec
+ * from, and its quality setting. For JPEG and WebP that is quality 1-100;
+ * for PNG it is the zlib compression level 0-9.
+ */
+public record OutputFormat(String extension, int quality) {
+
+    // OpenCV's own imwrite default, used when nothing else is specified
+    public static final OutputFormat JPEG = new OutputFormat("jpg", 95);
+
+    public OutputFormat {
+        switch (extension) {
+            case "jpg", "webp" -> {
+                if (quality < 1 || quality > 100) {
+                    throw new IllegalArgumentException("Quality for " + extension + " must be between 1 and 100");
+                }
+            }
+            case "png" -> {
+                if (quality < 0 || quality > 9) {
+                    throw new IllegalArgumentException("Compression level for png must be between 0 and 9");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unsupported output format: " + extension);
+        }
+    }
+
+    /**
+     * imwrite/imencode parameters; the caller releases the returned Mat.
+     */
+    public MatOfInt params() {
+        int flag = switch (extension) {
+            case "jpg" -> Imgcodecs.IMWRITE_JPEG_QUALITY;
+            case "webp" -> Imgcodecs.IMWRITE_WEBP_QUALITY;
+            default -> Imgcodecs.IMWRITE_PNG_COMPRESSION;
+        };
+        return new MatOfInt(flag, quality);
+    }
+
+    public MediaType mediaType() {
+        return switch (extension) {
+            case "jpg" -> MediaType.IMAGE_JPEG;
+            case "png" -> MediaType.IMAGE_PNG;
+            default -> MediaType.parseMediaType("image/webp");
+        };
+    }
+
+    // Distinguishes results of the same operation encoded differently
+    public String token() {
+        return extension + ":" + quality;
+    }
+}
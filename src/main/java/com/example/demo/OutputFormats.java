@@ -0,0 +1,89 @@
+package com.example.demo;
+
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses how each result is encoded. A request can ask for a format and
+ * quality with "format" (jpeg, png, webp or auto) and "quality"; otherwise
+ * the automatic policy picks per operation. Edge maps are mostly flat black
+ * with thin lines, which JPEG blurs and PNG stores both losslessly and
+ * compactly. Everything else is photographic and goes to WebP, or to JPEG
+ * when this OpenCV build cannot write WebP.
+ */
+@Component
+public class OutputFormats {
+
+    private static final Set<String> EDGE_OPERATIONS = Set.of(
+            "prewitt", "filter_sobel", "filter_laplacian", "filter_log");
+
+    private final int jpegQuality;
+    private final int webpQuality;
+    private final int pngCompression;
+    private final String photoFormat;
+
+    public OutputFormats(
+            @Value("${output.jpeg-quality:85}") int jpegQuality,
+            @Value("${output.webp-quality:80}") int webpQuality,
+            @Value("${output.png-compression:3}") int pngCompression,
+            @Value("${output.photo-format:webp}") String photoFormat
+    ) {
+        this.jpegQuality = jpegQuality;
+        this.webpQuality = webpQuality;
+        this.pngCompression = pngCompression;
+        this.photoFormat = photoFormat(photoFormat, Imgcodecs.haveImageWriter(".webp"));
+    }
+
+    /**
+     * The format a request asked for, or the automatic choice for
+     * {@code operation} (the result's prefix, e.g. "filter_sobel").
+     */
+    public OutputFormat forRequest(Map<String, Object> body, String operation) {
+        Object format = body.get("format");
+        String name = format == null ? "auto" : format.toString().toLowerCase();
+        if (name.equals("auto")) {
+            name = EDGE_OPERATIONS.contains(operation.toLowerCase()) ? "png" : photoFormat;
+        }
+
+        Object quality = body.get("quality");
+        return switch (name) {
+            case "jpeg", "jpg" -> new OutputFormat("jpg", quality == null ? jpegQuality : parse(quality));
+            case "webp" -> new OutputFormat("webp", quality == null ? webpQuality : parse(quality));
+            case "png" -> new OutputFormat("png", quality == null ? pngCompression : parse(quality));
+            default -> throw new IllegalArgumentException("Unsupported output format: " + name);
+        };
+    }
+
+    /**
+     * The automatic choice for a pipeline is made by its last operation,
+     * which determines what the result looks like.
+     */
+    public OutputFormat forPipeline(Map<String, Object> body, List<Map<String, Object>> operations) {
+        if (operations.isEmpty()) {
+            return forRequest(body, "pipeline");
+        }
+        Map<String, Object> last = operations.get(operations.size() - 1);
+        String operation = String.valueOf(last.get("type"));
+        if (operation.equalsIgnoreCase("filter")) {
+            Object filterType = last.get("filterType");
+            if (filterType == null) {
+                throw new IllegalArgumentException("Missing pipeline parameter: filterType");
+            }
+            operation = "filter_" + filterType;
+        }
+        return forRequest(body, operation);
+    }
+
+    static String photoFormat(String configured, boolean webpWritable) {
+        return configured.equals("webp") && !webpWritable ? "jpeg" : configured;
+    }
+
+    private static int parse(Object quality) {
+        return Integer.parseInt(quality.toString());
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.demo;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A per-pixel adjustment of an 8-bit BGR image, compiled into a 256-entry
+ * lookup table per channel. Consecutive operations in the same colour space
+ * compose into one set of tables with {@link #then(PointOp)}, so a chain of
+ * adjustments costs a single pass (and, for HSV, a single colour round trip).
+ */
+public final class PointOp {
+
+    public enum Space { BGR, HSV }
+
+    private final Space space;
+    private final byte[][] tables;
+
+    private PointOp(Space space, byte[][] tables) {
+        this.space = space;
+        this.tables = tables;
+    }
+
+    // Scales V in HSV space, leaving hue and saturation untouched.
+    public static PointOp brightness(float value) {
+        return linear(Space.HSV, 2, value, 0);
+    }
+
+    // Offsets one BGR channel; an unknown channel name leaves the image unchanged.
+    public static PointOp channelOffset(String channel, float value) {
+        return switch (channel.toLowerCase()) {
+            case "red" -> linear(Space.BGR, 2, 1, value);
+            case "green" -> linear(Space.BGR, 1, 1, value);
+            case "blue" -> linear(Space.BGR, 0, 1, value);
+            default -> linear(Space.BGR, 0, 1, 0);
+        };
+    }
+
+    public boolean composesWith(PointOp next) {
+        return space == next.space;
+    }
+
+    /**
+     * Returns the single operation equivalent to applying this one and then
+     * {@code next}. Both must work in the same colour space.
+     */
+    public PointOp then(PointOp next) {
+        if (!composesWith(next)) {
+            throw new IllegalArgumentException("Cannot compose " + space + " and " + next.space + " point operations");
+        }
+        byte[][] composed = new byte[3][256];
+        for (int c = 0; c < 3; c++) {
+            for (int x = 0; x < 256; x++) {
+                composed[c][x] = next.tables[c][tables[c][x] & 0xFF];
+            }
+        }
+        return new PointOp(space, composed);
+    }
+
+    /**
+     * Applies the operation to a 3-channel 8-bit image and returns a new Mat
+     * owned by the caller.
+     */
+    public Mat apply(Mat image) {
+        if (image.channels() != 3) {
+            throw new IllegalArgumentException("Invalid color space. Expected 3 channels");
+        }
+
+        try (MatScope scope = new MatScope()) {
+            Mat result = new Mat();
+            if (space == Space.HSV) {
+                Mat hsvImage = scope.newMat();
+                Imgproc.cvtColor(image, hsvImage, Imgproc.COLOR_BGR2HSV);
+                applyTables(hsvImage, hsvImage, scope);
+                Imgproc.cvtColor(hsvImage, result, Imgproc.COLOR_HSV2BGR);
+            } else {
+                applyTables(image, result, scope);
+            }
+            return result;
+        }
+    }
+
+    // Tables that are plain saturating offsets run as one vectorised Core.add
+    // over all channels; anything else is a single Core.LUT call with the
+    // three tables interleaved into one 3-channel table.
+    private void applyTables(Mat src, Mat dst, MatScope scope) {
+        double[] offsets = offsets();
+        if (offsets != null) {
+            Core.add(src, new Scalar(offsets), dst);
+            return;
+        }
+
+        byte[] interleaved = new byte[256 * 3];
+        for (int x = 0; x < 256; x++) {
+            for (int c = 0; c < 3; c++) {
+                interleaved[x * 3 + c] = tables[c][x];
+            }
+        }
+        Mat lut = scope.track(new Mat(1, 256, CvType.CV_8UC3));
+        lut.put(0, 0, interleaved);
+        Core.LUT(src, lut, dst);
+    }
+
+    // Per-channel k such that every table maps x to saturate(x + k), or null.
+    private double[] offsets() {
+        double[] offsets = new double[3];
+        for (int c = 0; c < 3; c++) {
+            byte[] table = tables[c];
+            int low = table[0] & 0xFF;
+            int k = low > 0 ? low : (table[255] & 0xFF) - 255;
+            for (int x = 0; x < 256; x++) {
+                if ((table[x] & 0xFF) != saturate(x + k)) {
+                    return null;
+                }
+            }
+            offsets[c] = k;
+        }
+        return offsets;
+    }
+
+    // Identity on every channel but one, which maps x to saturate(round(x * alpha + beta))
+    // exactly as Mat.convertTo does.
+    private static PointOp linear(Space space, int channel, float alpha, float beta) {
+        byte[][] tables = new byte[3][256];
+        for (int c = 0; c < 3; c++) {
+            for (int x = 0; x < 256; x++) {
+                tables[c][x] = (byte) (c == channel ? saturate((int) Math.rint(x * alpha + beta)) : x);
+            }
+        }
+        return new PointOp(space, tables);
+    }
+
+    private static int saturate(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the output of an operation on a source image so that repeating
+ * the same request (e.g. scrubbing a slider back to an earlier value) returns
+ * the existing processed file or encoded bytes without recomputing.
+ * Streamed results are bounded by the bytes held in memory. Persisted
+ * results are bounded by the total size of the files they point at; evicting
+ * one only forgets the mapping, since the client may still hold the name.
+ * The files themselves are removed by the storage cleanup like any other
+ * output, which also invalidates the entries that point at them.
+ */
+@Component
+public class ResultCache implements MeterBinder {
+
+    private final ImageStore imageStore;
+    private final StorageIndex storageIndex;
+    private final long maxMemoryBytes;
+    private final long maxFileBytes;
+    private final int maxEntries;
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long fileBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(
+            ImageStore imageStore,
+            StorageIndex storageIndex,
+            @Value("${result.cache.max-memory-bytes:67108864}") long maxMemoryBytes,
+            @Value("${result.cache.max-file-bytes:536870912}") long maxFileBytes,
+            @Value("${result.cache.max-entries:1024}") int maxEntries
+    ) {
+        this.imageStore = imageStore;
+        this.storageIndex = storageIndex;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Builds a canonical key from the operation and its parsed parameters;
+     * parameters are ordered by name so equivalent requests share a key.
+     */
+    public static String key(String operation, Map<String, ?> params) {
+        return operation + new TreeMap<>(params);
+    }
+
+    // The store calls (exists, touch, size) may be remote, so they run
+    // outside the monitor; only the map and its accounting are guarded
+    public String findFile(String key) {
+        Entry entry = lookup("file:" + key);
+        if (entry != null && imageStore.exists(entry.filename)) {
+            hits.incrementAndGet();
+            markRead(entry.filename);
+            return entry.filename;
+        }
+        if (entry != null) {
+            removeIfSame("file:" + key, entry);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public byte[] findBytes(String key) {
+        Entry entry = lookup("bytes:" + key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            entry.sources.forEach(this::markRead);
+            return entry.bytes;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void putFile(String key, String filename, List<String> sources) {
+        long size = imageStore.size(filename);
+        put("file:" + key, new Entry(filename, null, size, sources));
+    }
+
+    public void putBytes(String key, byte[] bytes, List<String> sources) {
+        put("bytes:" + key, new Entry(null, bytes, bytes.length, sources));
+    }
+
+    /**
+     * Drops every result computed from, or stored in, the given file.
+     */
+    public synchronized void invalidate(String filename) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (filename.equals(entry.filename) || entry.sources.contains(filename)) {
+                it.remove();
+                account(entry, -1);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("result.cache.gets", hits, AtomicLong::get)
+                .description("Processed result lookups")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("result.cache.gets", misses, AtomicLong::get)
+                .description("Processed result lookups")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("result.cache.entries", this, ResultCache::entryCount)
+                .description("Processed results remembered by the cache")
+                .register(registry);
+        Gauge.builder("result.cache.memory.bytes", this, ResultCache::memoryBytes)
+                .description("Encoded result bytes held in memory")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("result.cache.file.bytes", this, ResultCache::fileBytes)
+                .description("Size of the stored files that cached results point at")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private synchronized double entryCount() {
+        return entries.size();
+    }
+
+    private synchronized double memoryBytes() {
+        return memoryBytes;
+    }
+
+    private synchronized double fileBytes() {
+        return fileBytes;
+    }
+
+    // A hit stands in for recomputing from the sources, so it counts as a
+    // use of the result and, through its lineage, of the sources
+    private void markRead(String filename) {
+        imageStore.touch(filename);
+        storageIndex.markRead(filename, System.currentTimeMillis());
+    }
+
+    private synchronized Entry lookup(String key) {
+        return entries.get(key);
+    }
+
+    // Another thread may have replaced the entry while the store was checked
+    private synchronized void removeIfSame(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            remove(key);
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        account(entry, 1);
+
+        Iterator<Entry> it = entries.values().iterator();
+        while ((memoryBytes > maxMemoryBytes || fileBytes > maxFileBytes || entries.size() > maxEntries)
+                && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            account(eldest, -1);
+        }
+    }
+
+    private void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            account(previous, -1);
+        }
+    }
+
+    private void account(Entry entry, int sign) {
+        if (entry.bytes != null) {
+            memoryBytes += sign * entry.size;
+        } else {
+            fileBytes += sign * entry.size;
+        }
+    }
+
+    private record Entry(String filename, byte[] bytes, long size, List<String> sources) {
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps files in a directory that every node mounts (NFS, SMB, a
+ * fuse-mounted bucket). Writes are published with a rename inside the
+ * target directory, which is atomic on such file systems, so a node never
+ * reads another node's partial file. Identical uploads on two nodes map to
+ * the same content name and simply replace each other.
+ *
+ * <p>Each node's {@link StorageIndex} only sees its own requests, so use is
+ * also recorded in the shared file's modification time, and cleanup skips
+ * a file another node has touched since this node last used it. Touches
+ * are throttled per file to one per touch interval, which keeps a busy
+ * file from costing a metadata round trip on every request.
+ */
+public class SharedImageStore extends LocalImageStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedImageStore.class);
+    private static final int MAX_TRACKED_TOUCHES = 10_000;
+
+    private final long touchIntervalMillis;
+
+    // name -> when this node last touched it, least recently touched first
+    private final LinkedHashMap<String, Long> touched = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_TOUCHES;
+        }
+    };
+
+    public SharedImageStore(String directory, long touchIntervalMillis) {
+        super(directory);
+        this.touchIntervalMillis = touchIntervalMillis;
+    }
+
+    @Override
+    public void touch(String name) {
+        long now = System.currentTimeMillis();
+        synchronized (touched) {
+            Long last = touched.get(name);
+            if (last != null && now - last < touchIntervalMillis) {
+                return;
+            }
+            touched.put(name, now);
+        }
+        try {
+            Files.setLastModifiedTime(resolve(name), FileTime.fromMillis(now));
+        } catch (NoSuchFileException e) {
+            // Deleted in the meantime; the next read reports it
+        } catch (IOException e) {
+            log.warn("Failed to touch shared file: {}", name, e);
+        }
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        synchronized (touched) {
+            touched.remove(name);
+        }
+        super.delete(name);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.demo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public ImageStore imageStore(
+            @Value("${storage.type:local}") String type,
+            @Value("${upload.dir}") String uploadDir,
+            @Value("${storage.shared.dir:}") String sharedDir,
+            @Value("${storage.shared.touch-interval-millis:60000}") long touchIntervalMillis,
+            @Value("${storage.local-cache.max-bytes:1073741824}") long localCacheMaxBytes
+    ) throws IOException {
+        return switch (type) {
+            case "local" -> new LocalImageStore(uploadDir);
+            case "shared" -> {
+                if (sharedDir.isBlank()) {
+                    throw new IllegalStateException("storage.type=shared requires storage.shared.dir");
+                }
+                yield new CachingImageStore(new SharedImageStore(sharedDir, touchIntervalMillis),
+                        new LocalImageStore(uploadDir), localCacheMaxBytes);
+            }
+            default -> throw new IllegalStateException("Unknown storage.type: " + type);
+        };
+    }
+}
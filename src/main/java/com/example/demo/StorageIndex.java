@@ -0,0 +1,195 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory index of the files in the image store, ordered by when each
+ * was last used, with the lineage of every derived file. Cleanup asks it
+ * which files to delete instead of listing the store.
+ *
+ * <p>Creating a derived file counts as using all of its ancestors, so an
+ * original a user is still working on is never older than its results. When
+ * a file expires, or is evicted to bring the directory under its quota,
+ * everything derived from it goes with it.
+ */
+@Component
+public class StorageIndex implements MeterBinder {
+
+    // Reads closer together than this count as one use
+    private static final long READ_RESOLUTION_MILLIS = 1000;
+
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    // ordered by lastUsed: a file is moved to the tail whenever it is used,
+    // so iteration starts at the file that has gone unused the longest
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long totalBytes;
+
+    public StorageIndex(
+            @Value("${storage.ttl-minutes:15}") long ttlMinutes,
+            @Value("${storage.max-bytes:1073741824}") long maxBytes
+    ) {
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Records a new file created at {@code now} from {@code sources}, and
+     * marks those sources and their own ancestors as used.
+     */
+    public synchronized void add(String filename, long size, List<String> sources, long now) {
+        Entry previous = entries.remove(filename);
+        if (previous != null) {
+            totalBytes -= previous.size;
+        }
+
+        Entry entry = new Entry(size, now);
+        for (String source : sources) {
+            Entry parent = entries.get(source);
+            if (parent != null && !source.equals(filename)) {
+                entry.parents.add(source);
+                parent.children.add(filename);
+            }
+        }
+        entries.put(filename, entry);
+        totalBytes += size;
+        touchAncestors(filename, now);
+    }
+
+    /**
+     * Marks an existing file, and its ancestors, as used at {@code now};
+     * an unknown file is added as an original.
+     */
+    public synchronized void touch(String filename, long size, long now) {
+        Entry entry = entries.remove(filename);
+        if (entry == null) {
+            add(filename, size, List.of(), now);
+            return;
+        }
+        entry.lastUsed = now;
+        entries.put(filename, entry);
+        touchAncestors(filename, now);
+    }
+
+    /**
+     * Marks a file that was read, and its ancestors, as used at {@code now}.
+     * A read within a second of the file's last recorded use is ignored, so
+     * a slider streaming previews does not reorder the index on every frame.
+     * Unknown files are ignored too; every file is indexed when written.
+     */
+    public synchronized void markRead(String filename, long now) {
+        Entry entry = entries.get(filename);
+        if (entry == null || now - entry.lastUsed < READ_RESOLUTION_MILLIS) {
+            return;
+        }
+        touch(filename, entry.size, now);
+    }
+
+    /**
+     * Removes and returns up to about {@code limit} files that have outlived
+     * the TTL or, oldest first, must go to bring the total under the quota.
+     * A file's descendants are always returned with it, so a run can exceed
+     * the limit by one lineage.
+     */
+    public synchronized List<Evicted> evict(long now, int limit) {
+        List<Evicted> evicted = new ArrayList<>();
+        while (evicted.size() < limit && !entries.isEmpty()) {
+            Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+            boolean expired = eldest.getValue().lastUsed < now - ttlMillis;
+            if (!expired && totalBytes <= maxBytes) {
+                break;
+            }
+            removeLineage(eldest.getKey(), evicted);
+        }
+        return evicted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("storage.files", this, StorageIndex::fileCount)
+                .description("Files tracked in the image store")
+                .register(registry);
+        Gauge.builder("storage.bytes", this, StorageIndex::totalBytes)
+                .description("Total size of the files tracked in the image store")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private synchronized double fileCount() {
+        return entries.size();
+    }
+
+    private synchronized double totalBytes() {
+        return totalBytes;
+    }
+
+    private void touchAncestors(String filename, long now) {
+        Deque<String> pending = new ArrayDeque<>(entries.get(filename).parents);
+        Set<String> seen = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (!seen.add(name)) {
+                continue;
+            }
+            Entry entry = entries.remove(name);
+            if (entry == null) {
+                continue;
+            }
+            entry.lastUsed = now;
+            entries.put(name, entry);
+            pending.addAll(entry.parents);
+        }
+    }
+
+    private void removeLineage(String filename, List<Evicted> removed) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(filename);
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            Entry entry = entries.remove(name);
+            if (entry == null) {
+                continue;
+            }
+            totalBytes -= entry.size;
+            removed.add(new Evicted(name, entry.size, entry.lastUsed));
+            for (String parent : entry.parents) {
+                Entry parentEntry = entries.get(parent);
+                if (parentEntry != null) {
+                    parentEntry.children.remove(name);
+                }
+            }
+            pending.addAll(entry.children);
+        }
+    }
+
+    public record Evicted(String filename, long size, long lastUsed) {
+    }
+
+    private static final class Entry {
+        final long size;
+        long lastUsed;
+        final Set<String> parents = new LinkedHashSet<>();
+        final Set<String> children = new LinkedHashSet<>();
+
+        Entry(long size, long lastUsed) {
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.demo;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Names files in the image store. Every name is a relative path sharded
+ * two levels deep by its first four hex digits ("3f/a2/3fa2....jpg"), so no
+ * directory grows past a few dozen files even at millions of images.
+ * Names stay opaque to callers: {@link ImageStore} resolves them, and the
+ * same name works under /processed/ and /download/.
+ */
+public final class StorageLayout {
+
+    private StorageLayout() {
+    }
+
+    /**
+     * Names an upload after the SHA-256 of its bytes, so identical uploads
+     * map to the same file.
+     */
+    public static String contentName(byte[] data, String extension) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return sharded(HexFormat.of().formatHex(digest), "", extension);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Names a processed result with a random id, so concurrent requests
+     * never write to the same file. The prefix is only a readable hint and
+     * is reduced to letters, digits, '-' and '_'.
+     */
+    public static String uniqueName(String prefix, String extension) {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        return sharded(id, prefix.replaceAll("[^A-Za-z0-9_-]", "_") + "_", extension);
+    }
+
+    private static String sharded(String hex, String prefix, String extension) {
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4) + "/" + prefix + hex + "." + extension;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.demo;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Random;
+
+/**
+ * Deterministic BGR test images: a gradient background with seeded shapes
+ * and mild noise, so detectors find corners and blobs while results stay
+ * comparable between runs and releases. Shared by the unit tests, the
+ * JMH benchmarks and the load test.
+ */
+final class SyntheticImages {
+
+    private static final long SEED = 42;
+
+    private SyntheticImages() {
+    }
+
+    static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    // resolution as "WIDTHxHEIGHT", the form used by the benchmarks' @Param values
+    static Mat create(String resolution) {
+        String[] parts = resolution.split("x");
+        return create(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), SEED);
+    }
+
+    static Mat create(int width, int height, long seed) {
+        Mat image = new Mat(height, width, CvType.CV_8UC3);
+        byte[] row = new byte[width * 3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x * 3] = (byte) (x * 255 / width);
+                row[x * 3 + 1] = (byte) (y * 255 / height);
+                row[x * 3 + 2] = (byte) ((x + y) * 127 / (width + height));
+            }
+            image.put(y, 0, row);
+        }
+
+        Random random = new Random(seed);
+        int shapes = Math.max(16, width * height / 20_000);
+        int maxSize = Math.max(8, Math.min(width, height) / 10);
+        for (int i = 0; i < shapes; i++) {
+            Point center = new Point(random.nextInt(width), random.nextInt(height));
+            Scalar color = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            int size = 4 + random.nextInt(maxSize);
+            if (random.nextBoolean()) {
+                Imgproc.circle(image, center, size, color, -1);
+            } else {
+                Imgproc.rectangle(image, center, new Point(center.x + size, center.y + size), color, -1);
+            }
+        }
+
+        Mat noise = new Mat(image.size(), image.type());
+        Core.setRNGSeed((int) seed);
+        // Centred on 128 so the 8-bit noise can darken as well as brighten
+        Core.randn(noise, 128, 8);
+        Core.addWeighted(image, 1, noise, 1, -128, image);
+        noise.release();
+        return image;
+    }
+
+    static byte[] encode(Mat image, String extension, int... params) {
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt flags = new MatOfInt(params);
+        try {
+            if (!Imgcodecs.imencode(extension, image, buffer, flags)) {
+                throw new IllegalStateException("Failed to encode " + extension);
+            }
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+            flags.release();
+        }
+    }
+}
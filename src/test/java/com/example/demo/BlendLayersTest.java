@@ -0,0 +1,225 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Multi-layer fusion: the blend itself against a weighted sum computed in
+ * double precision, the weights the controller derives from a request, and
+ * the per-geometry caching of resized layers.
+ */
+class BlendLayersTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static Mat base;
+    private static Mat second;
+    private static Mat third;
+    private static ImageProcessingService service;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        base = SyntheticImages.create(WIDTH, HEIGHT, 11);
+        second = SyntheticImages.create(WIDTH, HEIGHT, 12);
+        third = SyntheticImages.create(WIDTH, HEIGHT, 13);
+        service = new ImageProcessingService(new KernelRegistry(), new SimpleMeterRegistry(), Long.MAX_VALUE, 1);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        base.release();
+        second.release();
+        third.release();
+        service.shutdown();
+    }
+
+    @Test
+    void threeLayersMatchReferenceWeightedSum() {
+        List<Float> weights = List.of(0.5f, 0.3f, 0.2f);
+        Mat expected = weightedSum(List.of(base, second, third), weights);
+
+        // Accumulating in float32 rather than double may round one level apart
+        assertMaxDiff(expected, service.blendLayers(List.of(base, second, third), weights), 1);
+    }
+
+    @Test
+    void twoLayersMatchBlendImages() {
+        Mat expected = service.blendImages(base, second, 0.25f);
+        assertMaxDiff(expected, service.blendLayers(List.of(base, second), List.of(0.75f, 0.25f)), 0);
+    }
+
+    @Test
+    void currentWeightDefaultsToWhatTheLayersLeave() throws Exception {
+        assertEquals(List.of(0.5f, 0.3f, 0.2f), requestedWeights(""));
+        assertEquals(List.of(0.8f, 0.3f, 0.2f), requestedWeights("\"currentWeight\": 0.8,"));
+    }
+
+    @Test
+    void layersAreResizedToTheBaseGeometry() throws Exception {
+        ImageCache imageCache = mock(ImageCache.class);
+        ComputeExecutor computeExecutor = new ComputeExecutor(1, 4);
+        try {
+            MockMvc mockMvc = fusionController(imageCache, mock(ImageProcessingService.class), computeExecutor);
+            mockMvc.perform(fusionRequest("\"preview\": true,"))
+                    .andExpect(status().isOk());
+
+            // A preview blends onto the proxy, so the layers take its size
+            verify(imageCache).getPreview("base.png");
+            verify(imageCache).getResized("second.png", WIDTH / 2, HEIGHT / 2);
+            verify(imageCache).getResized("third.png", WIDTH / 2, HEIGHT / 2);
+        } finally {
+            computeExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void resizedLayersAreCachedPerGeometry(@TempDir Path uploadDir) throws Exception {
+        LocalImageStore store = new LocalImageStore(uploadDir + "/");
+        store.put("layer.png", SyntheticImages.encode(second, ".png"));
+        ImageCache imageCache = new ImageCache(store, new StorageIndex(15, 1 << 30), 64 << 20, 16, 1024);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        imageCache.bindTo(registry);
+
+        Mat half = imageCache.getResized("layer.png", WIDTH / 2, HEIGHT / 2);
+        Mat quarter = imageCache.getResized("layer.png", WIDTH / 4, HEIGHT / 4);
+        double hitsBefore = hits(registry);
+        Mat halfAgain = imageCache.getResized("layer.png", WIDTH / 2, HEIGHT / 2);
+        try {
+            assertEquals(WIDTH / 2, half.cols());
+            assertEquals(HEIGHT / 2, half.rows());
+            assertEquals(WIDTH / 4, quarter.cols());
+            assertEquals(HEIGHT / 4, quarter.rows());
+            assertEquals(hitsBefore + 1, hits(registry));
+            assertMaxDiff(half.clone(), halfAgain.clone(), 0);
+        } finally {
+            half.release();
+            quarter.release();
+            halfAgain.release();
+        }
+
+        // Deleting the file drops every geometry cached for it
+        imageCache.invalidate("layer.png");
+        double missesBefore = registry.get("image.cache.gets").tag("result", "miss").functionCounter().count();
+        imageCache.getResized("layer.png", WIDTH / 2, HEIGHT / 2).release();
+        assertTrue(registry.get("image.cache.gets").tag("result", "miss").functionCounter().count() > missesBefore);
+    }
+
+    private static List<Float> requestedWeights(String extraFields) throws Exception {
+        ImageCache imageCache = mock(ImageCache.class);
+        ImageProcessingService processing = mock(ImageProcessingService.class);
+        ComputeExecutor computeExecutor = new ComputeExecutor(1, 4);
+        try {
+            fusionController(imageCache, processing, computeExecutor).perform(fusionRequest(extraFields))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.processedImage").value("fused.jpg"));
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Float>> weights = ArgumentCaptor.forClass(List.class);
+            verify(processing).blendLayers(anyList(), weights.capture());
+            verify(imageCache).getResized("second.png", WIDTH, HEIGHT);
+            verify(imageCache).getResized("third.png", WIDTH, HEIGHT);
+            return weights.getValue();
+        } finally {
+            computeExecutor.shutdown();
+        }
+    }
+
+    private static MockMvc fusionController(ImageCache imageCache, ImageProcessingService processing,
+                                            ComputeExecutor computeExecutor) {
+        when(imageCache.get("base.png")).thenAnswer(call -> new Mat(HEIGHT, WIDTH, CvType.CV_8UC3));
+        when(imageCache.getPreview("base.png")).thenAnswer(call -> new Mat(HEIGHT / 2, WIDTH / 2, CvType.CV_8UC3));
+        when(imageCache.getResized(anyString(), anyInt(), anyInt())).thenAnswer(call ->
+                new Mat(call.<Integer>getArgument(2), call.<Integer>getArgument(1), CvType.CV_8UC3));
+        when(processing.blendLayers(anyList(), anyList())).thenAnswer(call -> {
+            Mat layer = call.<List<Mat>>getArgument(0).get(0);
+            return new Mat(layer.rows(), layer.cols(), CvType.CV_8UC3);
+        });
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.saveProcessedImage(any(), eq("fused"), anyList(), any())).thenReturn("fused.jpg");
+
+        ImageController controller = new ImageController(
+                fileStorageService,
+                processing,
+                mock(FeatureDetectionService.class),
+                mock(ImagePipelineService.class),
+                imageCache,
+                mock(ResultCache.class),
+                computeExecutor,
+                new OutputFormats(85, 80, 3, "jpeg"),
+                new DownloadService(16),
+                new ObjectMapper(),
+                mock(ImageStore.class)
+        );
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    private static RequestBuilder fusionRequest(String extraFields) {
+        String body = "{" + extraFields + """
+                "currentImage": "base.png",
+                "layers": [{"image": "second.png", "weight": 0.3}, {"image": "third.png", "weight": 0.2}]}
+                """;
+        return post("/image-fusion/layers").contentType(MediaType.APPLICATION_JSON).content(body);
+    }
+
+    private static double hits(SimpleMeterRegistry registry) {
+        return registry.get("image.cache.gets").tag("result", "hit").functionCounter().count();
+    }
+
+    private static Mat weightedSum(List<Mat> layers, List<Float> weights) {
+        Mat sum = Mat.zeros(layers.get(0).size(), CvType.CV_64FC3);
+        Mat scaled = new Mat();
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).convertTo(scaled, CvType.CV_64F, weights.get(i));
+            Core.add(sum, scaled, sum);
+        }
+        Mat result = new Mat();
+        sum.convertTo(result, CvType.CV_8U);
+        sum.release();
+        scaled.release();
+        return result;
+    }
+
+    private static void assertMaxDiff(Mat expected, Mat actual, double tolerance) {
+        Mat diff = new Mat();
+        try {
+            Core.absdiff(expected, actual, diff);
+            double maxDiff = Core.norm(diff, Core.NORM_INF);
+            assertTrue(maxDiff <= tolerance, "max abs diff " + maxDiff + " exceeds " + tolerance);
+        } finally {
+            expected.release();
+            actual.release();
+            diff.release();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class DownloadServiceTest {
+
+    private static final String NAME = "ab/cd/abcd1234.png";
+    private static final String URL = "/download/" + NAME;
+
+    private final byte[] data = new byte[100];
+
+    private MockMvc mockMvc;
+    private String etag;
+
+    @BeforeEach
+    void setUp(@TempDir Path uploadDir) throws Exception {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        LocalImageStore store = new LocalImageStore(uploadDir.toString());
+        store.put(NAME, data);
+
+        // Only the store and the download service take part in serving a
+        // file; the rest are mocks, some of whose classes touch OpenCV
+        SyntheticImages.loadOpenCv();
+        ImageController controller = new ImageController(
+                mock(FileStorageService.class),
+                mock(ImageProcessingService.class),
+                mock(FeatureDetectionService.class),
+                mock(ImagePipelineService.class),
+                mock(ImageCache.class),
+                mock(ResultCache.class),
+                mock(ComputeExecutor.class),
+                mock(OutputFormats.class),
+                new DownloadService(16),
+                new ObjectMapper(),
+                store
+        );
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+        etag = mockMvc.perform(get(URL)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    void servesWholeFileWithValidators() throws Exception {
+        mockMvc.perform(get(URL))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, startsWith("\"")))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"abcd1234.png\""))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, data.length))
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().bytes(data));
+    }
+
+    @Test
+    void answersMatchingIfNoneMatchWithNotModified() throws Exception {
+        mockMvc.perform(get(URL).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void servesSingleRangeAsPartialContent() throws Exception {
+        mockMvc.perform(get(URL).header(HttpHeaders.RANGE, "bytes=0-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-9/100"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10))
+                .andExpect(content().bytes(Arrays.copyOfRange(data, 0, 10)));
+
+        mockMvc.perform(get(URL).header(HttpHeaders.RANGE, "bytes=-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 95-99/100"))
+                .andExpect(content().bytes(Arrays.copyOfRange(data, 95, 100)));
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() throws Exception {
+        // An empty suffix and a start at or past the end select no bytes
+        for (String range : new String[] {"bytes=-0", "bytes=100-", "bytes=150-200"}) {
+            mockMvc.perform(get(URL).header(HttpHeaders.RANGE, range))
+                    .andExpect(status().isRequestedRangeNotSatisfiable())
+                    .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */100"));
+        }
+    }
+
+    @Test
+    void ignoresRangeWhenIfRangeDoesNotMatch() throws Exception {
+        mockMvc.perform(get(URL)
+                        .header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().bytes(data));
+
+        mockMvc.perform(get(URL)
+                        .header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent());
+    }
+
+    @Test
+    void rejectsPathTraversal() throws Exception {
+        mockMvc.perform(get("/download/ab/../../secret.png"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/processed/../secret.png"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void answersMissingFileWithNotFound() throws Exception {
+        mockMvc.perform(get("/download/ab/cd/missing.png"))
+                .andExpect(status().isNotFound());
+    }
+}
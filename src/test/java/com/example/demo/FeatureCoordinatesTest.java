@@ -0,0 +1,179 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Harris keypoints found in a region of interest, under a mask or at a
+ * reduced scale must land where a full-resolution run puts them. The image
+ * is a grid of white squares on black, so every corner is known and lies
+ * well away from the region and mask edges used here.
+ */
+class FeatureCoordinatesTest {
+
+    private static final int WIDTH = 440;
+    private static final int HEIGHT = 360;
+    private static final int SQUARE = 40;
+    private static final int PITCH = 80;
+
+    // Full-resolution Harris peaks sit on a pixel next to the corner
+    private static final double CORNER_TOLERANCE = 1.5;
+    // Scaled runs are refined with cornerSubPix towards the corner itself
+    private static final double SCALED_TOLERANCE = 2.0;
+
+    // Region edges fall in the gaps between squares; x0 and y0 are odd so a
+    // missing offset or a half-pixel slip cannot cancel out
+    private static final Rect ROI = new Rect(101, 97, 400, 400);
+    // An L: the top two rows from the second column on, plus the second and
+    // third columns below them. Its bounding box also holds the squares it
+    // leaves out, so only the rasterized polygon can exclude them.
+    private static final List<List<Integer>> MASK = List.of(
+            List.of(100, 20), List.of(420, 20), List.of(420, 180),
+            List.of(260, 180), List.of(260, 340), List.of(100, 340));
+
+    private static Mat image;
+    private static FeatureDetectionService service;
+    private static List<Point> corners;
+    private static List<Point> fullResolution;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        image = Mat.zeros(HEIGHT, WIDTH, CvType.CV_8UC3);
+        corners = new ArrayList<>();
+        for (int y = SQUARE; y + SQUARE <= HEIGHT - SQUARE; y += PITCH) {
+            for (int x = SQUARE; x + SQUARE <= WIDTH - SQUARE; x += PITCH) {
+                Imgproc.rectangle(image, new Point(x, y), new Point(x + SQUARE - 1, y + SQUARE - 1),
+                        new Scalar(255, 255, 255), Imgproc.FILLED);
+                // Corners lie on pixel boundaries, half a pixel outside the
+                // first and last filled pixel centres
+                for (double cy : new double[] {y - 0.5, y + SQUARE - 0.5}) {
+                    for (double cx : new double[] {x - 0.5, x + SQUARE - 0.5}) {
+                        corners.add(new Point(cx, cy));
+                    }
+                }
+            }
+        }
+        service = new FeatureDetectionService(0, new SimpleMeterRegistry());
+        fullResolution = detect(Map.of());
+    }
+
+    @AfterAll
+    static void tearDown() {
+        image.release();
+    }
+
+    @Test
+    void fullResolutionFindsEveryCorner() {
+        assertEquals(80, corners.size());
+        assertMatched(corners, fullResolution, CORNER_TOLERANCE);
+        assertMatched(fullResolution, corners, CORNER_TOLERANCE);
+    }
+
+    @Test
+    void roiKeypointsMatchFullResolution() {
+        // The roi runs past the right and bottom edges and is clipped
+        List<Point> found = detect(Map.of("roi", roi()));
+        List<Point> expected = select(fullResolution, FeatureCoordinatesTest::inRoi);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), found.size());
+        assertMatched(expected, found, 1e-3);
+    }
+
+    @Test
+    void maskKeypointsMatchFullResolution() {
+        MatOfPoint2f polygon = new MatOfPoint2f(MASK.stream()
+                .map(xy -> new Point(xy.get(0), xy.get(1)))
+                .toArray(Point[]::new));
+        try {
+            List<Point> found = detect(Map.of("mask", MASK));
+            List<Point> expected = select(fullResolution, p -> Imgproc.pointPolygonTest(polygon, p, false) > 0);
+
+            assertEquals(48, select(corners, p -> Imgproc.pointPolygonTest(polygon, p, false) > 0).size());
+            assertEquals(expected.size(), found.size());
+            assertMatched(expected, found, 1e-3);
+        } finally {
+            polygon.release();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.5, 0.4})
+    void scaledKeypointsMatchFullResolution(double scale) {
+        List<Point> found = detect(Map.of("scale", scale));
+
+        assertMatched(found, fullResolution, SCALED_TOLERANCE);
+        assertMatched(corners, found, SCALED_TOLERANCE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.5, 0.4})
+    void scaledRoiKeypointsMatchFullResolution(double scale) {
+        List<Point> found = detect(Map.of("roi", roi(), "scale", scale));
+
+        assertTrue(found.stream().allMatch(FeatureCoordinatesTest::inRoi));
+        assertMatched(found, fullResolution, SCALED_TOLERANCE);
+        assertMatched(select(corners, FeatureCoordinatesTest::inRoi), found, SCALED_TOLERANCE);
+    }
+
+    private static List<Point> detect(Map<String, Object> body) {
+        MatOfKeyPoint keyPoints = service.detectKeyPoints(image, "harris", DetectorParams.from(body));
+        try {
+            float[] packed = FeatureDetectionService.toCompactArray(keyPoints);
+            List<Point> points = new ArrayList<>(packed.length / 5);
+            for (int i = 0; i < packed.length; i += 5) {
+                points.add(new Point(packed[i], packed[i + 1]));
+            }
+            return points;
+        } finally {
+            keyPoints.release();
+        }
+    }
+
+    // As a request body would carry it
+    private static Map<String, Object> roi() {
+        return Map.of("x", ROI.x, "y", ROI.y, "width", ROI.width, "height", ROI.height);
+    }
+
+    private static boolean inRoi(Point p) {
+        return p.inside(ROI);
+    }
+
+    private static List<Point> select(List<Point> points, Predicate<Point> filter) {
+        return points.stream().filter(filter).toList();
+    }
+
+    // Every point in from has a point in to within tolerance
+    private static void assertMatched(List<Point> from, List<Point> to, double tolerance) {
+        assertFalse(from.isEmpty());
+        for (Point p : from) {
+            double nearest = to.stream()
+                    .mapToDouble(q -> Math.hypot(p.x - q.x, p.y - q.y))
+                    .min()
+                    .orElse(Double.POSITIVE_INFINITY);
+            assertTrue(nearest <= tolerance, "no keypoint within " + tolerance + " of " + p + ", nearest " + nearest);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageHeaderTest {
+
+    private static final int WIDTH = 321;
+    private static final int HEIGHT = 123;
+
+    private static Mat image;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        image = SyntheticImages.create(WIDTH, HEIGHT, 1);
+    }
+
+    @Test
+    void readsPngDimensions() throws Exception {
+        ImageHeader header = ImageHeader.read(SyntheticImages.encode(image, ".png"));
+        assertEquals(new ImageHeader("png", WIDTH, HEIGHT), header);
+    }
+
+    @Test
+    void readsBaselineJpegDimensions() throws Exception {
+        byte[] jpeg = SyntheticImages.encode(image, ".jpg", Imgcodecs.IMWRITE_JPEG_QUALITY, 90);
+        assertEquals(new ImageHeader("jpeg", WIDTH, HEIGHT), ImageHeader.read(jpeg));
+        assertTrue(indexOfMarker(jpeg, 0xc0) > 0, "expected a baseline SOF0 marker");
+    }
+
+    @Test
+    void readsProgressiveJpegDimensions() throws Exception {
+        byte[] jpeg = SyntheticImages.encode(image, ".jpg", Imgcodecs.IMWRITE_JPEG_PROGRESSIVE, 1);
+        assertEquals(new ImageHeader("jpeg", WIDTH, HEIGHT), ImageHeader.read(jpeg));
+        assertTrue(indexOfMarker(jpeg, 0xc2) > 0, "expected a progressive SOF2 marker");
+    }
+
+    @Test
+    void skipsAppSegmentsAndFillBytesBeforeSof() throws Exception {
+        byte[] jpeg = concat(
+                bytes(0xff, 0xd8),
+                // APP0 (JFIF), APP1 (Exif-like) and APP14, each with a payload
+                bytes(0xff, 0xe0, 0x00, 0x10), "JFIF\0".getBytes(), new byte[9],
+                bytes(0xff, 0xe1, 0x00, 0x08), "Exif\0\0".getBytes(),
+                bytes(0xff, 0xee, 0x00, 0x04, 0x00, 0x00),
+                // fill bytes may precede any marker
+                bytes(0xff, 0xff, 0xff),
+                // DHT (C4) shares the SOF range and must be skipped
+                bytes(0xc4, 0x00, 0x04, 0x00, 0x00),
+                bytes(0xff, 0xc0, 0x00, 0x11, 0x08, 0x01, 0xe0, 0x02, 0x80, 0x03)
+        );
+        assertEquals(new ImageHeader("jpeg", 640, 480), ImageHeader.read(jpeg));
+    }
+
+    @Test
+    void rejectsTruncatedInput() throws Exception {
+        byte[] png = SyntheticImages.encode(image, ".png");
+        byte[] jpeg = SyntheticImages.encode(image, ".jpg");
+        int sof = indexOfMarker(jpeg, 0xc0);
+
+        assertThrows(FileValidationException.class, () -> ImageHeader.read(Arrays.copyOf(png, 20)));
+        assertThrows(FileValidationException.class, () -> ImageHeader.read(Arrays.copyOf(jpeg, sof + 6)));
+        assertThrows(FileValidationException.class, () -> ImageHeader.read(Arrays.copyOf(jpeg, 3)));
+        assertThrows(FileValidationException.class, () -> ImageHeader.read(new byte[0]));
+    }
+
+    @Test
+    void rejectsUnknownFormatsAndZeroDimensions() {
+        assertThrows(FileValidationException.class, () -> ImageHeader.read("GIF89a....".getBytes()));
+        byte[] zeroWidth = concat(bytes(0xff, 0xd8), bytes(0xff, 0xc0, 0x00, 0x11, 0x08, 0x01, 0xe0, 0x00, 0x00, 0x03));
+        assertThrows(FileValidationException.class, () -> ImageHeader.read(zeroWidth));
+    }
+
+    @Test
+    void rejectsOversizeDimensionsBeforeDecoding(@TempDir Path uploadDir) throws Exception {
+        FileStorageService service = storageService(uploadDir, 50_000);
+
+        // WIDTH x HEIGHT is under the limit and decodes
+        Mat decoded = service.decodeImage("small.png", SyntheticImages.encode(image, ".png"));
+        assertEquals(WIDTH, decoded.cols());
+        decoded.release();
+
+        // A bare 100000x100000 IHDR with no image data: rejected on the
+        // header alone, since a decode would fail differently
+        byte[] hugePng = concat(
+                bytes(0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'),
+                bytes(0x00, 0x00, 0x00, 0x0d, 'I', 'H', 'D', 'R'),
+                bytes(0x00, 0x01, 0x86, 0xa0, 0x00, 0x01, 0x86, 0xa0, 0x08, 0x02, 0x00, 0x00, 0x00)
+        );
+        FileValidationException e = assertThrows(FileValidationException.class,
+                () -> service.decodeImage("huge.png", hugePng));
+        assertTrue(e.getMessage().contains("100000x100000"), e.getMessage());
+    }
+
+    private static FileStorageService storageService(Path uploadDir, long maxPixels) {
+        LocalImageStore store = new LocalImageStore(uploadDir + "/");
+        StorageIndex storageIndex = new StorageIndex(15, 1 << 30);
+        return new FileStorageService(
+                store,
+                maxPixels,
+                new ImageCache(store, storageIndex, 64 << 20, 16, 1024),
+                new ResultCache(store, storageIndex, 1 << 20, 1 << 20, 16),
+                storageIndex,
+                100,
+                new SimpleMeterRegistry()
+        );
+    }
+
+    private static int indexOfMarker(byte[] data, int marker) {
+        for (int i = 0; i + 1 < data.length; i++) {
+            if ((data[i] & 0xff) == 0xff && (data[i + 1] & 0xff) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = Arrays.stream(parts).mapToInt(part -> part.length).sum();
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The store implementations over temporary directories. The caching store
+ * runs with two LocalImageStores standing in for the shared mount and this
+ * node's upload directory.
+ */
+class ImageStoreTest {
+
+    private static final long OLD = 1_000_000_000_000L;
+
+    @TempDir
+    Path remoteDir;
+
+    @TempDir
+    Path localDir;
+
+    private LocalImageStore remote;
+    private LocalImageStore local;
+
+    @BeforeEach
+    void setUp() {
+        remote = new LocalImageStore(remoteDir.toString());
+        local = new LocalImageStore(localDir.toString());
+    }
+
+    @Test
+    void fetchesOnFirstReadAndServesTheLocalCopyAfterwards() throws Exception {
+        byte[] data = bytes(100, 1);
+        remote.put("ab/cd/a.png", data);
+        CachingImageStore store = new CachingImageStore(remote, local, 1 << 20);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        store.bindTo(registry);
+
+        Path first = store.localPath("ab/cd/a.png");
+        Path second = store.localPath("ab/cd/a.png");
+
+        assertEquals(localDir.resolve("ab/cd/a.png"), first);
+        assertEquals(first, second);
+        assertArrayEquals(data, Files.readAllBytes(first));
+        assertEquals(1, gets(registry, "miss"));
+        assertEquals(1, gets(registry, "hit"));
+        assertThrows(NoSuchFileException.class, () -> store.localPath("ab/cd/missing.png"));
+    }
+
+    @Test
+    void evictsUnpinnedCopiesButNotRecentlyReadOnes() throws Exception {
+        // Copies left by an earlier run have never been handed out, so
+        // they are evictable; a is read now and pinned
+        for (String name : new String[] {"a.png", "c.png"}) {
+            remote.put(name, bytes(100, 2));
+            local.put(name, bytes(100, 2));
+        }
+        setLastModified(localDir.resolve("a.png"), OLD);
+        setLastModified(localDir.resolve("c.png"), OLD + 1000);
+        CachingImageStore store = new CachingImageStore(remote, local, 250);
+        store.localPath("a.png");
+
+        // 300 bytes against 250: c, the least recently read, goes
+        store.put("b.png", bytes(100, 3));
+        assertTrue(local.exists("a.png"));
+        assertFalse(local.exists("c.png"));
+        assertTrue(local.exists("b.png"));
+        assertTrue(remote.exists("c.png"));
+
+        // Everything left is pinned, so the bound is exceeded rather than
+        // a copy removed under a reader
+        store.put("d.png", bytes(100, 4));
+        assertTrue(local.exists("a.png"));
+        assertTrue(local.exists("b.png"));
+        assertTrue(local.exists("d.png"));
+    }
+
+    @Test
+    void reindexesLocalCopiesOnRestart() throws Exception {
+        byte[] data = bytes(64, 5);
+        remote.put("a.png", data);
+        new CachingImageStore(remote, local, 1 << 20).localPath("a.png");
+
+        CachingImageStore restarted = new CachingImageStore(remote, local, 1 << 20);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        restarted.bindTo(registry);
+
+        assertEquals(1, registry.get("storage.local.copies").gauge().value());
+        assertEquals(data.length, registry.get("storage.local.bytes").gauge().value());
+        restarted.localPath("a.png");
+        assertEquals(1, gets(registry, "hit"));
+        assertEquals(0, gets(registry, "miss"));
+    }
+
+    @Test
+    void deleteRemovesBothCopies() throws Exception {
+        remote.put("a.png", bytes(10, 6));
+        CachingImageStore store = new CachingImageStore(remote, local, 1 << 20);
+        store.localPath("a.png");
+
+        store.delete("a.png");
+        assertFalse(local.exists("a.png"));
+        assertFalse(remote.exists("a.png"));
+        assertFalse(store.exists("a.png"));
+    }
+
+    @Test
+    void throttlesTouchesPerFile() throws Exception {
+        SharedImageStore shared = new SharedImageStore(remoteDir.toString(), 60_000);
+        shared.put("a.png", bytes(10, 7));
+        shared.put("b.png", bytes(10, 7));
+        setLastModified(remoteDir.resolve("a.png"), OLD);
+        setLastModified(remoteDir.resolve("b.png"), OLD);
+
+        shared.touch("a.png");
+        assertTrue(shared.lastModified("a.png") > OLD);
+
+        // Within the interval: no second metadata write for a, but b is
+        // tracked separately
+        setLastModified(remoteDir.resolve("a.png"), OLD);
+        shared.touch("a.png");
+        shared.touch("b.png");
+        assertEquals(OLD, shared.lastModified("a.png"));
+        assertTrue(shared.lastModified("b.png") > OLD);
+
+        // Deleting forgets the last touch, so a re-upload is touched again
+        shared.delete("a.png");
+        shared.put("a.png", bytes(10, 7));
+        setLastModified(remoteDir.resolve("a.png"), OLD);
+        shared.touch("a.png");
+        assertTrue(shared.lastModified("a.png") > OLD);
+    }
+
+    @Test
+    void touchesEveryTimeWithoutAnInterval() throws Exception {
+        SharedImageStore shared = new SharedImageStore(remoteDir.toString(), 0);
+        shared.put("a.png", bytes(10, 8));
+        for (int i = 0; i < 2; i++) {
+            setLastModified(remoteDir.resolve("a.png"), OLD);
+            shared.touch("a.png");
+            assertTrue(shared.lastModified("a.png") > OLD);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"../a.png", "ab/../../a.png", "ab/cd/../../../a.png", "", "ab/.."})
+    void rejectsNamesOutsideTheRoot(String name) {
+        assertThrows(IllegalArgumentException.class, () -> local.localPath(name));
+        assertThrows(IllegalArgumentException.class, () -> local.put(name, bytes(10, 9)));
+        assertThrows(IllegalArgumentException.class, () -> local.exists(name));
+        assertThrows(IllegalArgumentException.class, () -> local.delete(name));
+    }
+
+    @Test
+    void acceptsDotSegmentsThatStayInsideTheRoot() throws Exception {
+        local.put("ab/../a.png", bytes(10, 10));
+        assertTrue(local.exists("a.png"));
+        assertEquals(localDir.resolve("a.png"), local.localPath("ab/cd/../../a.png"));
+    }
+
+    private static double gets(SimpleMeterRegistry registry, String result) {
+        return registry.get("storage.local.gets").tag("result", result).functionCounter().count();
+    }
+
+    private static void setLastModified(Path file, long millis) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+}
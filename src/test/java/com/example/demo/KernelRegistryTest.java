@@ -0,0 +1,169 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the registry-backed filters with the filter2D code they replaced.
+ * The reference implementations below are copies of that code. Filters
+ * whose arithmetic did not change must match exactly; only the new
+ * separable Gaussian is allowed a rounding difference.
+ */
+class KernelRegistryTest {
+
+    private static Mat image;
+    private static ImageProcessingService service;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        image = SyntheticImages.create(320, 240, 3);
+        service = new ImageProcessingService(new KernelRegistry(), new SimpleMeterRegistry(), Long.MAX_VALUE, 1);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        image.release();
+        service.shutdown();
+    }
+
+    @Test
+    void averageMatchesOldBlur() {
+        Mat expected = new Mat();
+        Imgproc.blur(image, expected, new Size(6, 6));
+        assertMaxDiff(expected, filtered("average"), 0);
+    }
+
+    @Test
+    void diskMatchesOldStructuringElementKernel() {
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(15, 15));
+        Mat expected = new Mat();
+        Imgproc.filter2D(image, expected, -1, kernel);
+        kernel.release();
+        assertMaxDiff(expected, filtered("disk"), 0);
+    }
+
+    @Test
+    void laplacianMatchesOldLaplacian() {
+        Mat expected = new Mat();
+        Mat response = new Mat();
+        Imgproc.Laplacian(image, response, CvType.CV_32F, 3);
+        response.convertTo(expected, CvType.CV_8U);
+        response.release();
+        assertMaxDiff(expected, filtered("laplacian"), 0);
+    }
+
+    @Test
+    void sobelMatchesOldSobel() {
+        Mat expected = new Mat();
+        Mat gradX = new Mat();
+        Imgproc.Sobel(image, gradX, CvType.CV_32F, 1, 0);
+        Core.convertScaleAbs(gradX, expected);
+        gradX.release();
+        assertMaxDiff(expected, filtered("sobel"), 0);
+    }
+
+    @Test
+    void logMatchesOldBlurAndLaplacian() {
+        Mat expected = new Mat();
+        Mat blurred = new Mat();
+        Mat response = new Mat();
+        Imgproc.GaussianBlur(image, blurred, new Size(5, 5), 0.9);
+        Imgproc.Laplacian(blurred, response, CvType.CV_32F, 3);
+        response.convertTo(expected, CvType.CV_8U);
+        blurred.release();
+        response.release();
+        assertMaxDiff(expected, filtered("log"), 0);
+    }
+
+    @Test
+    void gaussianIsWithinOneLevelOfGaussianBlur() {
+        // GaussianBlur on 8-bit input uses fixed-point arithmetic, the
+        // separable path floating point, so rounding may differ by one
+        Mat expected = new Mat();
+        Imgproc.GaussianBlur(image, expected, new Size(5, 5), 0);
+        assertMaxDiff(expected, filtered("gaussian"), 1);
+    }
+
+    @Test
+    void prewittMatchesFullKernels() {
+        // The old X kernel was built correctly. The old Y kernel started all
+        // three put() calls on row 0, so they overlapped and left most of
+        // rows 1-2 uninitialized; its output is not reproducible, and the
+        // reference is the intended [-1 -1 -1; 0 0 0; 1 1 1] kernel.
+        Mat kernelX = kernel(-1, 0, 1, -1, 0, 1, -1, 0, 1);
+        Mat kernelY = kernel(-1, -1, -1, 0, 0, 0, 1, 1, 1);
+        Mat gray = new Mat();
+        Mat gradX = new Mat();
+        Mat gradY = new Mat();
+        Mat expected = new Mat();
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.filter2D(gray, gradX, CvType.CV_32F, kernelX);
+        Imgproc.filter2D(gray, gradY, CvType.CV_32F, kernelY);
+        Core.convertScaleAbs(gradX, gradX);
+        Core.convertScaleAbs(gradY, gradY);
+        Core.addWeighted(gradX, 0.5, gradY, 0.5, 0, expected);
+
+        Mat actual = service.applyPrewitt(image);
+        release(kernelX, kernelY, gray, gradX, gradY);
+        assertMaxDiff(expected, actual, 0);
+    }
+
+    @Test
+    void prewittRespondsToHorizontalEdges() {
+        // A horizontal step is invisible to the X kernel, so any response
+        // comes from the Y pass: |3 * 255| saturates to 255, halved by the blend
+        Mat step = new Mat(40, 40, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        Mat bottom = step.rowRange(20, 40);
+        bottom.setTo(new Scalar(255, 255, 255));
+        bottom.release();
+        Mat edges = service.applyPrewitt(step);
+        try {
+            assertEquals(0.0, edges.get(10, 20)[0]);
+            assertEquals(128.0, edges.get(19, 20)[0]);
+            assertEquals(128.0, edges.get(20, 20)[0]);
+            assertEquals(0.0, edges.get(30, 20)[0]);
+        } finally {
+            step.release();
+            edges.release();
+        }
+    }
+
+    private static Mat filtered(String filterType) {
+        return service.applyFilter(image.clone(), filterType);
+    }
+
+    private static Mat kernel(double... values) {
+        Mat kernel = new Mat(3, 3, CvType.CV_32F);
+        kernel.put(0, 0, values);
+        return kernel;
+    }
+
+    private static void release(Mat... mats) {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+    }
+
+    private static void assertMaxDiff(Mat expected, Mat actual, double tolerance) {
+        Mat diff = new Mat();
+        try {
+            Core.absdiff(expected, actual, diff);
+            double maxDiff = Core.norm(diff, Core.NORM_INF);
+            assertTrue(maxDiff <= tolerance, "max abs diff " + maxDiff + " exceeds " + tolerance);
+        } finally {
+            release(expected, actual, diff);
+        }
+    }
+}
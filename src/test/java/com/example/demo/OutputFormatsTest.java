@@ -0,0 +1,111 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The photographic format is configured as JPEG here, so the automatic
+ * choice does not depend on whether this OpenCV build can write WebP; the
+ * fallback itself is checked through {@link OutputFormats#photoFormat}.
+ */
+class OutputFormatsTest {
+
+    private static final OutputFormat PHOTO = new OutputFormat("jpg", 85);
+    private static final OutputFormat EDGES = new OutputFormat("png", 3);
+
+    private static OutputFormats outputFormats;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        outputFormats = new OutputFormats(85, 80, 3, "jpeg");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"prewitt", "filter_sobel", "filter_laplacian", "FILTER_LOG"})
+    void autoPicksPngForEdgeMaps(String operation) {
+        assertEquals(EDGES, outputFormats.forRequest(Map.of(), operation));
+        assertEquals(EDGES, outputFormats.forRequest(Map.of("format", "auto"), operation));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"brightness", "grey", "filter_gaussian", "blend", "pipeline"})
+    void autoPicksThePhotoFormatForEverythingElse(String operation) {
+        assertEquals(PHOTO, outputFormats.forRequest(Map.of(), operation));
+    }
+
+    @Test
+    void photoFormatFallsBackToJpegWithoutWebpWriter() {
+        assertEquals("jpeg", OutputFormats.photoFormat("webp", false));
+        assertEquals("webp", OutputFormats.photoFormat("webp", true));
+        assertEquals("png", OutputFormats.photoFormat("png", false));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"jpeg, 60, jpg", "JPG, 60, jpg", "webp, 60, webp", "png, 6, png"})
+    void requestedFormatAndQualityOverrideTheAutomaticChoice(String format, String quality, String extension) {
+        Map<String, Object> body = Map.of("format", format, "quality", quality);
+        assertEquals(new OutputFormat(extension, Integer.parseInt(quality)), outputFormats.forRequest(body, "prewitt"));
+    }
+
+    @Test
+    void requestedFormatWithoutQualityUsesItsDefault() {
+        assertEquals(new OutputFormat("webp", 80), outputFormats.forRequest(Map.of("format", "webp"), "brightness"));
+        assertEquals(PHOTO, outputFormats.forRequest(Map.of("format", "jpeg"), "prewitt"));
+    }
+
+    @Test
+    void pipelineIsEncodedForItsLastOperation() {
+        assertEquals(EDGES, outputFormats.forPipeline(Map.of(), List.of(
+                Map.of("type", "brightness", "value", 1.2),
+                Map.of("type", "filter", "filterType", "sobel"))));
+        assertEquals(PHOTO, outputFormats.forPipeline(Map.of(), List.of(
+                Map.of("type", "filter", "filterType", "sobel"),
+                Map.of("type", "brightness", "value", 1.2))));
+        assertEquals(EDGES, outputFormats.forPipeline(Map.of(), List.of(Map.of("type", "prewitt"))));
+        assertEquals(PHOTO, outputFormats.forPipeline(Map.of(), List.of()));
+    }
+
+    @Test
+    void pipelineFilterWithoutTypeIsRejected() {
+        Map<String, Object> filter = new HashMap<>();
+        filter.put("type", "filter");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> outputFormats.forPipeline(Map.of(), List.of(filter)));
+        assertEquals("Missing pipeline parameter: filterType", e.getMessage());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"jpg, 0", "jpg, 101", "webp, 0", "webp, 101", "png, -1", "png, 10", "gif, 50"})
+    void rejectsQualityOutsideTheCodecRange(String extension, int quality) {
+        assertThrows(IllegalArgumentException.class, () -> new OutputFormat(extension, quality));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"jpg, 1", "jpg, 100", "webp, 1", "webp, 100", "png, 0", "png, 9"})
+    void acceptsQualityAtTheCodecLimits(String extension, int quality) {
+        assertDoesNotThrow(() -> new OutputFormat(extension, quality));
+    }
+
+    @Test
+    void rejectsInvalidRequests() {
+        assertThrows(IllegalArgumentException.class,
+                () -> outputFormats.forRequest(Map.of("format", "png", "quality", 12), "prewitt"));
+        assertThrows(IllegalArgumentException.class,
+                () -> outputFormats.forRequest(Map.of("format", "bmp"), "prewitt"));
+        // NumberFormatException, which is also answered with a 400
+        assertThrows(IllegalArgumentException.class,
+                () -> outputFormats.forRequest(Map.of("quality", "high"), "prewitt"));
+    }
+}
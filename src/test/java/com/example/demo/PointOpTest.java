@@ -0,0 +1,117 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the lookup-table point operations with the split/convert/merge
+ * code they replaced. The tables round exactly as Mat.convertTo does, so
+ * the outputs must be identical.
+ */
+class PointOpTest {
+
+    private static final double MAX_ABS_DIFF = 0;
+
+    private static Mat image;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        image = SyntheticImages.create(256, 192, 5);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        image.release();
+    }
+
+    @ParameterizedTest
+    @ValueSource(floats = {0f, 0.35f, 1f, 1.2f, 2.5f})
+    void brightnessMatchesHsvSplitScaleMerge(float value) {
+        assertMaxDiff(oldBrightness(image, value), PointOp.brightness(value).apply(image));
+    }
+
+    // Whole offsets take the Core.add path, fractional ones the lookup table
+    @ParameterizedTest
+    @CsvSource({
+            "red, 40", "green, -25", "blue, 300",
+            "red, 10.5", "green, -3.5", "blue, 0.25",
+            "purple, 20",
+    })
+    void channelOffsetMatchesSplitAddMerge(String channel, float value) {
+        assertMaxDiff(oldChannelOffset(image, channel, value), PointOp.channelOffset(channel, value).apply(image));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"30, -12.5", "-80, 90", "7.5, 7.5"})
+    void composedOffsetsMatchSequentialAdjustments(float red, float blue) {
+        Mat first = oldChannelOffset(image, "red", red);
+        Mat expected = oldChannelOffset(first, "blue", blue);
+        first.release();
+        PointOp composed = PointOp.channelOffset("red", red).then(PointOp.channelOffset("blue", blue));
+        assertMaxDiff(expected, composed.apply(image));
+    }
+
+    // ImageProcessingService.adjustBrightness before lookup tables
+    private static Mat oldBrightness(Mat original, float value) {
+        try (MatScope scope = new MatScope()) {
+            Mat hsvImage = scope.newMat();
+            Imgproc.cvtColor(original, hsvImage, Imgproc.COLOR_BGR2HSV);
+
+            List<Mat> channels = new ArrayList<>();
+            Core.split(hsvImage, channels);
+            scope.trackAll(channels);
+            channels.get(2).convertTo(channels.get(2), -1, value, 0);
+            Core.merge(channels, hsvImage);
+
+            Mat result = new Mat();
+            Imgproc.cvtColor(hsvImage, result, Imgproc.COLOR_HSV2BGR);
+            return result;
+        }
+    }
+
+    // ImageProcessingService.adjustColorChannel before lookup tables
+    private static Mat oldChannelOffset(Mat image, String channel, float value) {
+        try (MatScope scope = new MatScope()) {
+            List<Mat> channels = new ArrayList<>();
+            Core.split(image, channels);
+            scope.trackAll(channels);
+
+            switch (channel.toLowerCase()) {
+                case "red" -> channels.get(2).convertTo(channels.get(2), -1, 1, value);
+                case "green" -> channels.get(1).convertTo(channels.get(1), -1, 1, value);
+                case "blue" -> channels.get(0).convertTo(channels.get(0), -1, 1, value);
+                default -> {
+                }
+            }
+
+            Mat result = new Mat();
+            Core.merge(channels, result);
+            return result;
+        }
+    }
+
+    private static void assertMaxDiff(Mat expected, Mat actual) {
+        Mat diff = new Mat();
+        try {
+            Core.absdiff(expected, actual, diff);
+            double maxDiff = Core.norm(diff, Core.NORM_INF);
+            assertTrue(maxDiff <= MAX_ABS_DIFF, "max abs diff " + maxDiff + " exceeds " + MAX_ABS_DIFF);
+        } finally {
+            expected.release();
+            actual.release();
+            diff.release();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the index with explicit timestamps instead of the clock. TTL is
+ * fifteen minutes throughout; the quota is only reached where a test sets
+ * a small one.
+ */
+class StorageIndexTest {
+
+    private static final long TTL = TimeUnit.MINUTES.toMillis(15);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    void evictsFilesOnceTheyOutliveTheTtl() {
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of(), 10 * MINUTE);
+
+        assertEquals(List.of(), names(index.evict(TTL, 100)));
+        assertEquals(List.of("a.png"), names(index.evict(TTL + 1, 100)));
+        assertEquals(List.of(), names(index.evict(10 * MINUTE + TTL, 100)));
+        assertEquals(List.of("b.png"), names(index.evict(10 * MINUTE + TTL + 1, 100)));
+    }
+
+    @Test
+    void evictsOldestFirstUntilUnderQuota() {
+        StorageIndex index = new StorageIndex(15, 100);
+        index.add("a.png", 60, List.of(), 0);
+        index.add("b.png", 30, List.of(), 1);
+        index.add("c.png", 30, List.of(), 2);
+
+        // 120 bytes against a quota of 100: dropping the oldest is enough,
+        // and nothing is old enough to expire
+        assertEquals(List.of("a.png"), names(index.evict(3, 100)));
+        assertEquals(List.of(), names(index.evict(3, 100)));
+    }
+
+    @Test
+    void stopsAtTheLimitAndResumesOnTheNextRun() {
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of(), 1);
+        index.add("c.png", 10, List.of(), 2);
+
+        assertEquals(List.of("a.png", "b.png"), names(index.evict(TTL + MINUTE, 2)));
+        assertEquals(List.of("c.png"), names(index.evict(TTL + MINUTE, 2)));
+    }
+
+    @Test
+    void evictsDerivedFilesBeforeTheirSource() {
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of("a.png"), 0);
+        index.add("c.png", 10, List.of("b.png"), 0);
+        index.add("d.png", 10, List.of("a.png"), 0);
+        index.add("x.png", 10, List.of(), 10 * MINUTE);
+
+        // Using a derived file uses its sources, so descendants are always
+        // older and the lineage goes leaves first, never leaving an orphan
+        assertEquals(List.of("c.png", "b.png", "d.png", "a.png"), names(index.evict(TTL + 1, 100)));
+        assertEquals(List.of(), names(index.evict(TTL + 1, 100)));
+        assertEquals(List.of("x.png"), names(index.evict(10 * MINUTE + TTL + 1, 100)));
+    }
+
+    @Test
+    void evictingADerivedFileKeepsItsSource() {
+        StorageIndex index = new StorageIndex(15, 100);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 100, List.of("a.png"), MINUTE);
+
+        assertEquals(List.of("b.png"), names(index.evict(2 * MINUTE, 100)));
+        assertEquals(List.of("a.png"), names(index.evict(MINUTE + TTL + 1, 100)));
+    }
+
+    @Test
+    void derivingOrReadingAFileKeepsItsAncestorsAlive() {
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of("a.png"), 5 * MINUTE);
+        index.add("c.png", 10, List.of("b.png"), 10 * MINUTE);
+
+        // Creating c used b and, through it, a
+        assertEquals(List.of(), names(index.evict(10 * MINUTE + TTL, 100)));
+
+        index.markRead("c.png", 20 * MINUTE);
+        assertEquals(List.of(), names(index.evict(20 * MINUTE + TTL, 100)));
+        assertEquals(Set.of("a.png", "b.png", "c.png"),
+                Set.copyOf(names(index.evict(20 * MINUTE + TTL + 1, 100))));
+    }
+
+    @Test
+    void countsReadsAtOneSecondResolution() {
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of(), 0);
+
+        // Within a second of the last use: ignored, so a still expires at TTL
+        index.markRead("a.png", 999);
+        index.markRead("b.png", 1000);
+        index.markRead("unknown.png", 1000);
+
+        assertEquals(List.of("a.png"), names(index.evict(TTL + 1, 100)));
+        assertEquals(List.of("b.png"), names(index.evict(TTL + 1001, 100)));
+    }
+
+    @Test
+    void cleanupKeepsFilesUsedElsewhereAsOriginals(@TempDir Path uploadDir) throws Exception {
+        LocalImageStore store = new LocalImageStore(uploadDir + "/");
+        StorageIndex index = new StorageIndex(15, 1 << 30);
+        FileStorageService service = new FileStorageService(
+                store,
+                1 << 24,
+                new ImageCache(store, index, 64 << 20, 16, 1024),
+                new ResultCache(store, index, 1 << 20, 1 << 20, 16),
+                index,
+                100,
+                new SimpleMeterRegistry()
+        );
+
+        // This node last used the files at time 0; their modification
+        // times, as another node sharing the store would leave them, are
+        // later, except for stale.png
+        long written = 100 * MINUTE;
+        for (String name : List.of("a.png", "b.png", "stale.png")) {
+            store.put(name, new byte[10]);
+        }
+        setLastModified(uploadDir.resolve("a.png"), written);
+        setLastModified(uploadDir.resolve("b.png"), written);
+        setLastModified(uploadDir.resolve("stale.png"), 0);
+        index.add("a.png", 10, List.of(), 0);
+        index.add("b.png", 10, List.of("a.png"), 0);
+        index.add("stale.png", 10, List.of(), 0);
+
+        service.autoDelete();
+
+        assertTrue(store.exists("a.png"));
+        assertTrue(store.exists("b.png"));
+        assertFalse(store.exists("stale.png"));
+
+        // Both came back as originals with their clocks restarted at the
+        // other node's use: reading b no longer keeps a alive
+        index.markRead("b.png", written + 10 * MINUTE);
+        assertEquals(List.of("a.png"), names(index.evict(written + TTL + 1, 100)));
+    }
+
+    private static void setLastModified(Path file, long millis) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+    }
+
+    private static List<String> names(List<StorageIndex.Evicted> evicted) {
+        return evicted.stream().map(StorageIndex.Evicted::filename).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TiledFilterTest {
+
+    // 640x480 is above this threshold, so the tiled service always splits it
+    private static final long TILE_THRESHOLD_PIXELS = 100_000;
+
+    private static Mat image;
+    private static ImageProcessingService tiled;
+    private static ImageProcessingService untiled;
+
+    @BeforeAll
+    static void setUp() {
+        SyntheticImages.loadOpenCv();
+        image = SyntheticImages.create(640, 480, 7);
+        tiled = new ImageProcessingService(new KernelRegistry(), new SimpleMeterRegistry(), TILE_THRESHOLD_PIXELS, 4);
+        untiled = new ImageProcessingService(new KernelRegistry(), new SimpleMeterRegistry(), Long.MAX_VALUE, 4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        image.release();
+        tiled.shutdown();
+        untiled.shutdown();
+    }
+
+    // kernelSize 0 is the filter's default; the others widen the halo
+    @ParameterizedTest
+    @CsvSource({
+            "average, 0", "average, 11",
+            "disk, 0", "disk, 8",
+            "gaussian, 0", "gaussian, 9",
+            "laplacian, 0", "laplacian, 1", "laplacian, 5",
+            "sobel, 0", "sobel, 7",
+            "log, 0", "log, 7",
+    })
+    void tiledOutputMatchesSingleCall(String filterType, int kernelSize) {
+        // The untiled path filters in place, so each path gets its own copy
+        Mat tiledInput = image.clone();
+        Mat untiledInput = image.clone();
+        Mat tiledResult = tiled.applyFilter(tiledInput, filterType, kernelSize, false);
+        Mat untiledResult = untiled.applyFilter(untiledInput, filterType, kernelSize, false);
+        Mat diff = new Mat();
+        try {
+            Core.absdiff(tiledResult, untiledResult, diff);
+            assertEquals(0.0, Core.norm(diff), filterType + " with kernel size " + kernelSize);
+        } finally {
+            diff.release();
+            tiledResult.release();
+            tiledInput.release();
+            untiledInput.release();
+        }
+    }
+}